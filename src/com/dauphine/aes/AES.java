@@ -12,11 +12,12 @@ package com.dauphine.aes;
  *
  * @author Ricardo BOKA {@literal <ricardo.boka@dauphine.eu>}
  * @see Block
+ * @see BlockCipher
  * @see Key
  * @see SBox
  * @see State
  */
-public class AES {
+public class AES implements BlockCipher {
 
     /**
      * The number of rounds in the AES encryption process.
@@ -28,10 +29,15 @@ public class AES {
      */
     public final static int NUMBER_BLOCKS = 4;
 
+    /**
+     * The size of a cipher block in bytes.
+     */
+    public final static int BLOCK_SIZE = 16;
+
     /**
      * The S-box for byte substitution during encryption.
      */
-    private static final int[][] sBoxValues = {
+    static final int[][] sBoxValues = {
             {0x63, 0x7C, 0x77, 0x7B, 0xF2, 0x6B, 0x6F, 0xC5, 0x30, 0x01, 0x67, 0x2B, 0xFE, 0xD7, 0xAB, 0x76},
             {0xCA, 0x82, 0xC9, 0x7D, 0xFA, 0x59, 0x47, 0xF0, 0xAD, 0xD4, 0xA2, 0xAF, 0x9C, 0xA4, 0x72, 0xC0},
             {0xB7, 0xFD, 0x93, 0x26, 0x36, 0x3F, 0xF7, 0xCC, 0x34, 0xA5, 0xE5, 0xF1, 0x71, 0xD8, 0x31, 0x15},
@@ -53,7 +59,7 @@ public class AES {
     /**
      * The inverse S-box for byte substitution during decryption.
      */
-    private static final int[][] sBoxInvertValues = {
+    static final int[][] sBoxInvertValues = {
             {0x52, 0x09, 0x6A, 0xD5, 0x30, 0x36, 0xA5, 0x38, 0xBF, 0x40, 0xA3, 0x9E, 0x81, 0xF3, 0xD7, 0xFB},
             {0x7C, 0xE3, 0x39, 0x82, 0x9B, 0x2F, 0xFF, 0x87, 0x34, 0x8E, 0x43, 0x44, 0xC4, 0xDE, 0xE9, 0xCB},
             {0x54, 0x7B, 0x94, 0x32, 0xA6, 0xC2, 0x23, 0x3D, 0xEE, 0x4C, 0x95, 0x0B, 0x42, 0xFA, 0xC3, 0x4E},
@@ -75,7 +81,7 @@ public class AES {
     /**
      * The matrix used for the mix columns step during encryption.
      */
-    private static final int[][] stateValues = {
+    static final int[][] stateValues = {
             {2, 3, 1, 1},
             {1, 2, 3, 1},
             {1, 1, 2, 3},
@@ -85,7 +91,7 @@ public class AES {
     /**
      * The matrix used for the mix columns step during decryption.
      */
-    private static final int[][] stateInvertValues = {
+    static final int[][] stateInvertValues = {
             {14, 11, 13, 9},
             {9, 14, 11, 13},
             {13, 9, 14, 11},
@@ -100,36 +106,45 @@ public class AES {
     private final Key[] keys;
 
     /**
-     * The S-box used for substitution during encryption.
+     * The array of round keys used by the equivalent inverse cipher.
+     * The first and last ones are the encryption round keys, the others are transformed
+     * by the inverse mix columns step.
+     *
+     * @see Key
+     */
+    private final Key[] decipherKeys;
+
+    /**
+     * The S-box used for substitution during encryption, shared by every instance.
      *
      * @see SBox
      */
-    private final SBox sBox;
+    private static final SBox S_BOX = new SBox(sBoxValues);
 
     /**
-     * The inverse S-box used for substitution during decryption.
+     * The inverse S-box used for substitution during decryption, shared by every instance.
      *
      * @see SBox
      */
-    private final SBox sBoxInvert;
+    private static final SBox S_BOX_INVERT = new SBox(sBoxInvertValues);
 
     /**
-     * The state for the mix columns step during encryption.
+     * The state for the mix columns step during encryption, shared by every instance.
      *
      * @see State
      */
-    private final State state;
+    private static final State STATE = new State(stateValues);
 
     /**
-     * The state for the mix columns step during decryption.
+     * The state for the mix columns step during decryption, shared by every instance.
      *
      * @see State
      */
-    private final State stateInvert;
+    private static final State STATE_INVERT = new State(stateInvertValues);
 
     /**
      * Constructs an AES instance with the given key.
-     * Initializes the S-boxes, mix states, and generates the round keys.
+     * Generates the round keys, the S-boxes and mix states being built once and shared by every instance.
      *
      * @param key The Block representing the key.
      * @see Block
@@ -138,14 +153,16 @@ public class AES {
      * @see State
      */
     public AES(Block key) {
-        sBox = new SBox(sBoxValues);
-        sBoxInvert = new SBox(sBoxInvertValues);
+        Key temp = new Key(key);
+        keys = temp.generateSubKeys(S_BOX);
 
-        state = new State(stateValues);
-        stateInvert = new State(stateInvertValues);
+        decipherKeys = new Key[NUMBER_ROUNDS];
+        decipherKeys[0] = keys[0];
+        decipherKeys[NUMBER_ROUNDS - 1] = keys[NUMBER_ROUNDS - 1];
 
-        Key temp = new Key(key);
-        keys = temp.generateSubKeys(sBox);
+        for (int round = 1; round < NUMBER_ROUNDS - 1; ++round) {
+            decipherKeys[round] = new Key(new State(keys[round].toBlock()).multiply(STATE_INVERT).toBlock());
+        }
     }
 
     /**
@@ -164,21 +181,35 @@ public class AES {
         cipher = cipher.XOR(keys[round]);
 
         for (round = 1; round < NUMBER_ROUNDS - 1; ++round) {
-            cipher = cipher.substitute(sBox);
+            cipher = cipher.substitute(S_BOX);
             cipher = cipher.shift();
-            cipher = cipher.multiply(state);
+            cipher = cipher.multiply(STATE);
             cipher = cipher.XOR(keys[round]);
         }
 
-        cipher = cipher.substitute(sBox);
+        cipher = cipher.substitute(S_BOX);
         cipher = cipher.shift();
         cipher = cipher.XOR(keys[round]);
 
         return cipher.toBlock();
     }
 
+    /**
+     * Ciphers the given plain text bytes.
+     *
+     * @param plain The {@value #BLOCK_SIZE} bytes of the plain block.
+     * @return The {@value #BLOCK_SIZE} bytes of the encrypted block.
+     * @see Block
+     */
+    @Override
+    public byte[] cipher(byte[] plain) {
+        return cipher(new Block(plain)).toBytes();
+    }
+
     /**
      * Deciphers the given cipher text block.
+     * Uses the equivalent inverse cipher of FIPS-197, whose rounds have the same structure as the
+     * cipher ones thanks to the round keys transformed once by the inverse mix columns step.
      *
      * @param cipher The Block representing the cipher text.
      * @return The decrypted Block.
@@ -190,22 +221,34 @@ public class AES {
         State decipher = new State(cipher);
 
         int round = NUMBER_ROUNDS - 1;
-        decipher = decipher.XOR(keys[round]);
+        decipher = decipher.XOR(decipherKeys[round]);
 
         for (round = NUMBER_ROUNDS - 2; round > 0; --round) {
+            decipher = decipher.substitute(S_BOX_INVERT);
             decipher = decipher.shiftInvert();
-            decipher = decipher.substitute(sBoxInvert);
-            decipher = decipher.XOR(keys[round]);
-            decipher = decipher.multiply(stateInvert);
+            decipher = decipher.multiply(STATE_INVERT);
+            decipher = decipher.XOR(decipherKeys[round]);
         }
 
+        decipher = decipher.substitute(S_BOX_INVERT);
         decipher = decipher.shiftInvert();
-        decipher = decipher.substitute(sBoxInvert);
-        decipher = decipher.XOR(keys[round]);
+        decipher = decipher.XOR(decipherKeys[round]);
 
         return decipher.toBlock();
     }
 
+    /**
+     * Deciphers the given cipher text bytes.
+     *
+     * @param cipher The {@value #BLOCK_SIZE} bytes of the cipher block.
+     * @return The {@value #BLOCK_SIZE} bytes of the decrypted block.
+     * @see Block
+     */
+    @Override
+    public byte[] decipher(byte[] cipher) {
+        return decipher(new Block(cipher)).toBytes();
+    }
+
     /**
      * The main method to test the AES implementation.
      * Encrypts and decrypts a sample plain text and compares the result.
@@ -225,10 +268,10 @@ public class AES {
         Block cipherBlock = aes.cipher(plainBlock);
         Block decipherBlock = aes.decipher(cipherBlock);
 
-        System.out.println("SBox : \n" + aes.sBox);
-        System.out.println("SBoxInvert : \n" + aes.sBoxInvert);
-        System.out.println("State : \n" + aes.state);
-        System.out.println("StateInvert : \n" + aes.stateInvert);
+        System.out.println("SBox : \n" + S_BOX);
+        System.out.println("SBoxInvert : \n" + S_BOX_INVERT);
+        System.out.println("State : \n" + STATE);
+        System.out.println("StateInvert : \n" + STATE_INVERT);
 
         System.out.println("Plain : " + plainBlock);
         System.out.println("Key : " + key);
@@ -1,7 +1,10 @@
 package com.dauphine.aes;
 
+import java.util.AbstractList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
+import java.util.Objects;
 
 /**
  * <p>
@@ -29,9 +32,21 @@ public class Block implements Cloneable {
     public final static Block GENERATOR_POLYNOMIAL = new Block("00011011");
 
     /**
-     * The array of bits representing the binary data.
+     * The number of bits packed in a word.
      */
-    public boolean[] bits;
+    private final static int WORD_SIZE = Long.SIZE;
+
+    /**
+     * The number of bits of the block.
+     */
+    private final int size;
+
+    /**
+     * The bits of the block, packed 64 per word.
+     * The first bit of the block is the most significant bit of the first word,
+     * and the bits past the end of the block are always zero.
+     */
+    private long[] words;
 
     /**
      * Constructs a block of binary data with the specified size.
@@ -39,7 +54,8 @@ public class Block implements Cloneable {
      * @param size The size of the block.
      */
     public Block(int size) {
-        bits = new boolean[size];
+        this.size = size;
+        this.words = new long[(size + WORD_SIZE - 1) / WORD_SIZE];
     }
 
     /**
@@ -51,9 +67,10 @@ public class Block implements Cloneable {
     public Block(int size, int value) {
         this(size);
 
-        for (int i = size - 1; i >= 0; --i) {
-            bits[i] = (value % 2) == 1;
-            value /= 2;
+        int count = Math.min(size, Integer.SIZE);
+
+        if (count > 0) {
+            setBits(size - count, count, value & (-1L >>> (WORD_SIZE - count)));
         }
     }
 
@@ -66,7 +83,7 @@ public class Block implements Cloneable {
         this(bits.length());
 
         for (int i = 0; i < bits.length(); ++i) {
-            this.bits[i] = bits.charAt(i) == '1';
+            putBit(i, bits.charAt(i) == '1');
         }
     }
 
@@ -76,7 +93,11 @@ public class Block implements Cloneable {
      * @param bits The boolean array representing the block.
      */
     public Block(boolean[] bits) {
-        this.bits = bits.clone();
+        this(bits.length);
+
+        for (int i = 0; i < bits.length; ++i) {
+            putBit(i, bits[i]);
+        }
     }
 
     /**
@@ -85,14 +106,27 @@ public class Block implements Cloneable {
      * @param blocks The array of blocks to construct the block from.
      */
     public Block(Block[] blocks) {
-        int size = Arrays.stream(blocks).mapToInt(block -> block.bits.length).sum();
-        bits = new boolean[size];
+        this(Arrays.stream(blocks).mapToInt(block -> block.size).sum());
 
         int index = 0;
 
         for (Block block : blocks) {
-            System.arraycopy(block.bits, 0, bits, index, block.bits.length);
-            index += block.bits.length;
+            copyBits(block, 0, index, block.size);
+            index += block.size;
+        }
+    }
+
+    /**
+     * Constructs a block of binary data from a byte array.
+     * The most significant bit of the first byte becomes the first bit of the block.
+     *
+     * @param bytes The byte array representing the block.
+     */
+    public Block(byte[] bytes) {
+        this(bytes.length * 8);
+
+        for (int i = 0; i < bytes.length; ++i) {
+            words[i / Long.BYTES] |= (bytes[i] & 0xFFL) << (WORD_SIZE - 8 - 8 * (i % Long.BYTES));
         }
     }
 
@@ -105,7 +139,7 @@ public class Block implements Cloneable {
     public Block clone() {
         try {
             Block clone = (Block) super.clone();
-            clone.bits = bits.clone();
+            clone.words = words.clone();
 
             return clone;
         } catch (CloneNotSupportedException e) {
@@ -113,6 +147,83 @@ public class Block implements Cloneable {
         }
     }
 
+    /**
+     * Returns a view of the bits of the block, one boolean per bit, replacing the former {@code bits} array.
+     * The view has a fixed size, and setting one of its elements sets the bit of the block.
+     *
+     * @return The view of the bits.
+     * @deprecated The bits are now packed in words. Use {@link #getBit(int)}, {@link #setBit(int, boolean)}
+     * and {@link #length()} instead.
+     */
+    @Deprecated
+    public List<Boolean> bits() {
+        return new AbstractList<>() {
+
+            @Override
+            public Boolean get(int index) {
+                return getBit(Objects.checkIndex(index, length()));
+            }
+
+            @Override
+            public Boolean set(int index, Boolean value) {
+                boolean previous = get(index);
+                setBit(index, value);
+
+                return previous;
+            }
+
+            @Override
+            public int size() {
+                return length();
+            }
+
+        };
+    }
+
+    /**
+     * Returns the number of bits of the block.
+     *
+     * @return The size of the block.
+     */
+    public int length() {
+        return size;
+    }
+
+    /**
+     * Gets a bit of the block.
+     *
+     * @param index The index of the bit, 0 being the first (most significant) bit.
+     * @return The value of the bit.
+     */
+    public boolean getBit(int index) {
+        return (words[index / WORD_SIZE] & (Long.MIN_VALUE >>> (index % WORD_SIZE))) != 0;
+    }
+
+    /**
+     * Sets a bit of the block.
+     *
+     * @param index The index of the bit, 0 being the first (most significant) bit.
+     * @param value The value of the bit.
+     */
+    public void setBit(int index, boolean value) {
+        putBit(index, value);
+    }
+
+    /**
+     * Counts the bits set in the block.
+     *
+     * @return The number of bits set.
+     */
+    public int bitCount() {
+        int count = 0;
+
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+
+        return count;
+    }
+
     /**
      * Gets a segment of the block.
      *
@@ -121,12 +232,12 @@ public class Block implements Cloneable {
      * @return The segment block.
      */
     public Block getSegment(int numberSegments, int index) {
-        int segmentLength = bits.length / numberSegments;
-        boolean[] segment = new boolean[segmentLength];
+        int segmentLength = size / numberSegments;
+        Block segment = new Block(segmentLength);
 
-        System.arraycopy(bits, index * segmentLength, segment, 0, segmentLength);
+        segment.copyBits(this, index * segmentLength, 0, segmentLength);
 
-        return new Block(segment);
+        return segment;
     }
 
     /**
@@ -136,7 +247,7 @@ public class Block implements Cloneable {
      * @return The decimal value of the row index.
      */
     public int rowValue() {
-        return getSegment(2, 0).toDecimal();
+        return (int) getBits(0, size / 2);
     }
 
     /**
@@ -146,7 +257,7 @@ public class Block implements Cloneable {
      * @return The decimal value of the column index.
      */
     public int columnValue() {
-        return getSegment(2, 1).toDecimal();
+        return (int) getBits(size / 2, size / 2);
     }
 
     /**
@@ -156,13 +267,15 @@ public class Block implements Cloneable {
      * @return The resulting block.
      */
     public Block XOR(Block other) {
-        boolean[] resultBits = new boolean[bits.length];
+        Block result = new Block(size);
 
-        for (int i = 0; i < bits.length; ++i) {
-            resultBits[i] = bits[i] ^ other.bits[i];
+        for (int i = 0; i < words.length; ++i) {
+            result.words[i] = words[i] ^ other.words[i];
         }
 
-        return new Block(resultBits);
+        result.words[words.length - 1] &= lastWordMask();
+
+        return result;
     }
 
     /**
@@ -171,12 +284,16 @@ public class Block implements Cloneable {
      * @return The resulting block after left shift.
      */
     public Block leftShift() {
-        boolean[] shiftedBits = new boolean[bits.length];
+        Block shifted = new Block(size);
+        int last = words.length - 1;
 
-        System.arraycopy(bits, 1, shiftedBits, 0, bits.length - 1);
-        shiftedBits[bits.length - 1] = false;
+        for (int i = 0; i < last; ++i) {
+            shifted.words[i] = (words[i] << 1) | (words[i + 1] >>> (WORD_SIZE - 1));
+        }
 
-        return new Block(shiftedBits);
+        shifted.words[last] = (words[last] << 1) & lastWordMask();
+
+        return shifted;
     }
 
     /**
@@ -185,7 +302,7 @@ public class Block implements Cloneable {
      * @return The resulting block after modular multiplication.
      */
     public Block modularMultiplicationByX() {
-        return bits[0] ? leftShift().XOR(GENERATOR_POLYNOMIAL) : leftShift();
+        return getBit(0) ? leftShift().XOR(GENERATOR_POLYNOMIAL) : leftShift();
     }
 
     /**
@@ -195,11 +312,11 @@ public class Block implements Cloneable {
      * @return The resulting block after multiplication.
      */
     public Block modularMultiplication(Block other) {
-        Block result = new Block(bits.length);
+        Block result = new Block(size);
         Block multiplier = clone();
 
-        for (int i = other.bits.length - 1; i >= 0; --i) {
-            if (other.bits[i]) {
+        for (int i = other.size - 1; i >= 0; --i) {
+            if (other.getBit(i)) {
                 result = result.XOR(multiplier);
             }
 
@@ -247,14 +364,9 @@ public class Block implements Cloneable {
             Block[] temp = new Block[blockSize];
 
             for (int j = 0; j < blockSize; ++j) {
-                Block byteBlock = new Block(AES.NUMBER_BLOCKS * 2);
                 char ch = string.charAt(i * blockSize + j);
 
-                for (int k = 0; k < AES.NUMBER_BLOCKS * 2; ++k) {
-                    byteBlock.bits[(AES.NUMBER_BLOCKS * 2 - 1) - k] = (ch & (1 << k)) != 0;
-                }
-
-                temp[j] = byteBlock;
+                temp[j] = new Block(AES.NUMBER_BLOCKS * 2, ch & 0xFF);
             }
 
             result[i] = new Block(temp);
@@ -274,18 +386,12 @@ public class Block implements Cloneable {
         StringBuilder result = new StringBuilder();
 
         for (Block block : blocks) {
-            int numberBytes = block.bits.length / (AES.NUMBER_BLOCKS * 2);
+            int numberBytes = block.size / (AES.NUMBER_BLOCKS * 2);
 
             for (int i = 0; i < numberBytes; ++i) {
-                char value = 0;
-
-                for (int j = 0; j < (AES.NUMBER_BLOCKS * 2); ++j) {
-                    if (block.bits[i * (AES.NUMBER_BLOCKS * 2) + j]) {
-                        value |= (char) (1 << j);
-                    }
-                }
+                int value = (int) block.getBits(i * (AES.NUMBER_BLOCKS * 2), AES.NUMBER_BLOCKS * 2);
 
-                result.append(value);
+                result.append((char) (Integer.reverse(value) >>> (Integer.SIZE - AES.NUMBER_BLOCKS * 2)));
             }
         }
 
@@ -298,13 +404,25 @@ public class Block implements Cloneable {
      * @return The decimal representation of the block.
      */
     public int toDecimal() {
-        int decimalValue = 0;
+        int count = Math.min(size, Integer.SIZE);
 
-        for (boolean bit : bits) {
-            decimalValue = (decimalValue << 1) | (bit ? 1 : 0);
+        return (int) getBits(size - count, count);
+    }
+
+    /**
+     * Converts the block to a byte array.
+     * The first bit of the block becomes the most significant bit of the first byte.
+     *
+     * @return The byte array representation of the block.
+     */
+    public byte[] toBytes() {
+        byte[] bytes = new byte[size / 8];
+
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = (byte) (words[i / Long.BYTES] >>> (WORD_SIZE - 8 - 8 * (i % Long.BYTES)));
         }
 
-        return decimalValue;
+        return bytes;
     }
 
     /**
@@ -315,8 +433,8 @@ public class Block implements Cloneable {
     public String toHexadecimalString() {
         StringBuilder stringBuilder = new StringBuilder();
 
-        for (int i = 0; i < this.bits.length; i += 4) {
-            int val = (this.bits[i] ? 8 : 0) + (this.bits[i + 1] ? 4 : 0) + (this.bits[i + 2] ? 2 : 0) + (this.bits[i + 3] ? 1 : 0);
+        for (int i = 0; i < size; i += 4) {
+            int val = (int) getBits(i, 4);
 
             stringBuilder.append(Integer.toHexString(val).toUpperCase(Locale.ROOT));
         }
@@ -324,6 +442,96 @@ public class Block implements Cloneable {
         return stringBuilder.toString();
     }
 
+    /**
+     * Sets a bit of the block, for the constructors, which must not call an overridable method.
+     *
+     * @param index The index of the bit, 0 being the first (most significant) bit.
+     * @param value The value of the bit.
+     */
+    private void putBit(int index, boolean value) {
+        long mask = Long.MIN_VALUE >>> (index % WORD_SIZE);
+
+        if (value) {
+            words[index / WORD_SIZE] |= mask;
+        } else {
+            words[index / WORD_SIZE] &= ~mask;
+        }
+    }
+
+    /**
+     * Reads up to 64 consecutive bits of the block.
+     *
+     * @param from  The index of the first bit.
+     * @param count The number of bits, in [0, 64].
+     * @return The bits, right-aligned, the first one being the most significant.
+     */
+    private long getBits(int from, int count) {
+        if (count == 0) {
+            return 0;
+        }
+
+        int word = from / WORD_SIZE;
+        int shift = from % WORD_SIZE;
+        long value = words[word] << shift;
+
+        if (shift + count > WORD_SIZE) {
+            value |= words[word + 1] >>> (WORD_SIZE - shift);
+        }
+
+        return value >>> (WORD_SIZE - count);
+    }
+
+    /**
+     * Writes up to 64 consecutive bits of the block.
+     *
+     * @param from  The index of the first bit.
+     * @param count The number of bits, in [0, 64].
+     * @param value The bits, right-aligned, the first one being the most significant.
+     */
+    private void setBits(int from, int count, long value) {
+        if (count == 0) {
+            return;
+        }
+
+        long mask = -1L << (WORD_SIZE - count);
+        long aligned = (value << (WORD_SIZE - count)) & mask;
+        int word = from / WORD_SIZE;
+        int shift = from % WORD_SIZE;
+
+        words[word] = (words[word] & ~(mask >>> shift)) | (aligned >>> shift);
+
+        if (shift + count > WORD_SIZE) {
+            words[word + 1] = (words[word + 1] & ~(mask << (WORD_SIZE - shift))) | (aligned << (WORD_SIZE - shift));
+        }
+    }
+
+    /**
+     * Copies bits of another block into this block, up to 64 at a time.
+     *
+     * @param source     The block to copy from.
+     * @param sourceFrom The index of the first bit to copy.
+     * @param from       The index of the first bit to write.
+     * @param length     The number of bits to copy.
+     */
+    private void copyBits(Block source, int sourceFrom, int from, int length) {
+        for (int done = 0; done < length; done += WORD_SIZE) {
+            int count = Math.min(WORD_SIZE, length - done);
+
+            setBits(from + done, count, source.getBits(sourceFrom + done, count));
+        }
+    }
+
+    /**
+     * Returns the mask of the bits of the last word that belong to the block.
+     *
+     * @return The mask.
+     */
+    private long lastWordMask() {
+        int remainder = size % WORD_SIZE;
+
+        return remainder == 0 ? -1L : -1L << (WORD_SIZE - remainder);
+    }
+
     /**
      * {@inheritDoc}
      * <p>
@@ -331,10 +539,10 @@ public class Block implements Cloneable {
      */
     @Override
     public String toString() {
-        StringBuilder stringBuilder = new StringBuilder(bits.length);
+        StringBuilder stringBuilder = new StringBuilder(size);
 
-        for (boolean bit : bits) {
-            stringBuilder.append(bit ? '1' : '0');
+        for (int i = 0; i < size; ++i) {
+            stringBuilder.append(getBit(i) ? '1' : '0');
         }
 
         return stringBuilder.toString();
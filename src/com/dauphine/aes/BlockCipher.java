@@ -0,0 +1,36 @@
+package com.dauphine.aes;
+
+/**
+ * <p>
+ * Represents a block cipher working on {@value AES#BLOCK_SIZE}-byte blocks.
+ * This interface is implemented by every AES engine, so that modes of operation can run on any of them.
+ * </p>
+ *
+ * <p>
+ * Unless stated otherwise by the engine, implementations are thread safe.
+ * </p>
+ *
+ * @author Nelson PROIA {@literal <nelson.proia@dauphine.eu>}
+ * @see AES
+ * @see CTR
+ * @see GCM
+ */
+public interface BlockCipher {
+
+    /**
+     * Ciphers the given plain text bytes.
+     *
+     * @param plain The {@value AES#BLOCK_SIZE} bytes of the plain block.
+     * @return The {@value AES#BLOCK_SIZE} bytes of the encrypted block.
+     */
+    byte[] cipher(byte[] plain);
+
+    /**
+     * Deciphers the given cipher text bytes.
+     *
+     * @param cipher The {@value AES#BLOCK_SIZE} bytes of the cipher block.
+     * @return The {@value AES#BLOCK_SIZE} bytes of the decrypted block.
+     */
+    byte[] decipher(byte[] cipher);
+
+}
@@ -0,0 +1,61 @@
+package com.dauphine.aes;
+
+import java.nio.ByteBuffer;
+import java.util.stream.Collector;
+
+/**
+ * <p>
+ * Collectors gathering the chunks of a {@link BlockSpliterator} stream back into a single payload.
+ * This class provides collectors writing each chunk at its offset into a new array or a given buffer.
+ * </p>
+ *
+ * <p>
+ * Chunks cover disjoint ranges, so the collectors are concurrent and unordered: a parallel stream writes
+ * every chunk straight into the same destination, with neither intermediate containers nor merges.
+ * </p>
+ *
+ * @author Nelson PROIA {@literal <nelson.proia@dauphine.eu>}
+ * @see BlockSpliterator
+ */
+public final class BlockCollectors {
+
+    /**
+     * Prevents instantiation.
+     */
+    private BlockCollectors() {
+    }
+
+    /**
+     * Returns a collector writing the chunks into a new array.
+     *
+     * @param offset The offset in the stream of the first byte of the array.
+     * @param size   The size in bytes of the array.
+     * @return The collector.
+     * @see BlockSpliterator.Chunk
+     */
+    public static Collector<BlockSpliterator.Chunk, ?, byte[]> toArray(long offset, int size) {
+        return Collector.of(() -> new byte[size], (array, chunk) -> {
+            ByteBuffer buffer = chunk.buffer();
+            buffer.get(buffer.position(), array, Math.toIntExact(chunk.offset() - offset), buffer.remaining());
+        }, (left, right) -> left, Collector.Characteristics.CONCURRENT, Collector.Characteristics.UNORDERED,
+                Collector.Characteristics.IDENTITY_FINISH);
+    }
+
+    /**
+     * Returns a collector writing the chunks into the given buffer, for instance a direct or mapped one.
+     * The position and limit of the buffer are left unchanged.
+     *
+     * @param offset The offset in the stream of the byte at the position of the buffer.
+     * @param target The buffer receiving the chunks.
+     * @return The collector, whose result is the target buffer.
+     * @see BlockSpliterator.Chunk
+     */
+    public static Collector<BlockSpliterator.Chunk, ?, ByteBuffer> toBuffer(long offset, ByteBuffer target) {
+        return Collector.of(() -> target, (buffer, chunk) -> {
+            int index = target.position() + Math.toIntExact(chunk.offset() - offset);
+            buffer.put(index, chunk.buffer(), chunk.buffer().position(), chunk.buffer().remaining());
+        }, (left, right) -> left, Collector.Characteristics.CONCURRENT, Collector.Characteristics.UNORDERED,
+                Collector.Characteristics.IDENTITY_FINISH);
+    }
+
+}
@@ -0,0 +1,320 @@
+package com.dauphine.aes;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * <p>
+ * Spliterator cutting a payload into chunks that a mode of operation can process independently.
+ * This class provides the spliterator, the streams built on it and the operations transforming their chunks,
+ * so that a large payload is encrypted by the common pool through {@code parallel()} streams.
+ * </p>
+ *
+ * <p>
+ * Each chunk is a view of the payload together with its offset in the stream. Chunks, and thus split
+ * points, fall on multiples of the chunk size, itself a multiple of the unit of the mode: a block for
+ * {@link CTR}, whose key stream can start at any block offset, or a sector for sector-based modes, which
+ * must never see a sector cut in two. Splits halve the remaining chunks, so the sizes are exact.
+ * </p>
+ *
+ * @author Nelson PROIA {@literal <nelson.proia@dauphine.eu>}
+ * @see BlockCollectors
+ * @see CipherPipeline.Transform
+ * @see CTR
+ */
+public class BlockSpliterator implements Spliterator<BlockSpliterator.Chunk> {
+
+    /**
+     * The default size in bytes of a chunk.
+     */
+    public final static int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * <p>
+     * A chunk of a payload: a view of its bytes and its offset in the stream.
+     * </p>
+     */
+    public static final class Chunk {
+
+        /**
+         * The offset of the chunk in the stream.
+         */
+        private final long offset;
+
+        /**
+         * The bytes of the chunk.
+         */
+        private final ByteBuffer buffer;
+
+        /**
+         * Constructs a chunk.
+         *
+         * @param offset The offset of the chunk in the stream.
+         * @param buffer The bytes of the chunk.
+         */
+        public Chunk(long offset, ByteBuffer buffer) {
+            this.offset = offset;
+            this.buffer = buffer;
+        }
+
+        /**
+         * Returns the offset of the chunk in the stream.
+         *
+         * @return The offset.
+         */
+        public long offset() {
+            return offset;
+        }
+
+        /**
+         * Returns the bytes of the chunk.
+         *
+         * @return The buffer, whose remaining bytes are the chunk.
+         */
+        public ByteBuffer buffer() {
+            return buffer;
+        }
+
+    }
+
+    /**
+     * The payload, from its position to its limit at construction.
+     */
+    private final ByteBuffer payload;
+
+    /**
+     * The offset of the payload in the stream.
+     */
+    private final long offset;
+
+    /**
+     * The size in bytes of a chunk.
+     */
+    private final int chunkSize;
+
+    /**
+     * The index of the next chunk.
+     */
+    private int from;
+
+    /**
+     * The index following the last chunk.
+     */
+    private final int to;
+
+    /**
+     * Constructs a spliterator over the remaining bytes of a payload.
+     *
+     * @param payload   The payload, whose position and limit are left unchanged.
+     * @param offset    The offset of the payload in the stream, a multiple of the unit.
+     * @param chunkSize The size in bytes of a chunk, a multiple of the unit.
+     * @param unit      The size in bytes of the smallest range the mode can process on its own.
+     */
+    public BlockSpliterator(ByteBuffer payload, long offset, int chunkSize, int unit) {
+        this(payload.slice(), offset, chunkSize, 0, chunkCount(payload, offset, chunkSize, unit));
+    }
+
+    /**
+     * Constructs a spliterator over a range of chunks.
+     *
+     * @param payload   The payload.
+     * @param offset    The offset of the payload in the stream.
+     * @param chunkSize The size in bytes of a chunk.
+     * @param from      The index of the first chunk.
+     * @param to        The index following the last chunk.
+     */
+    private BlockSpliterator(ByteBuffer payload, long offset, int chunkSize, int from, int to) {
+        this.payload = payload;
+        this.offset = offset;
+        this.chunkSize = chunkSize;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Returns a stream of the chunks of a payload, cut for a mode working on blocks such as CTR.
+     *
+     * @param payload  The payload, whose position and limit are left unchanged.
+     * @param offset   The offset of the payload in the stream, a multiple of {@value AES#BLOCK_SIZE}.
+     * @param parallel Whether the stream is parallel.
+     * @return The stream of chunks.
+     */
+    public static Stream<Chunk> stream(ByteBuffer payload, long offset, boolean parallel) {
+        return StreamSupport.stream(new BlockSpliterator(payload, offset, DEFAULT_CHUNK_SIZE, AES.BLOCK_SIZE), parallel);
+    }
+
+    /**
+     * Returns a stream of the chunks of a payload, cut for a mode working on units of the given size.
+     *
+     * @param payload   The payload, whose position and limit are left unchanged.
+     * @param offset    The offset of the payload in the stream, a multiple of the unit.
+     * @param chunkSize The size in bytes of a chunk, a multiple of the unit.
+     * @param unit      The size in bytes of the smallest range the mode can process on its own, such as a sector.
+     * @param parallel  Whether the stream is parallel.
+     * @return The stream of chunks.
+     */
+    public static Stream<Chunk> stream(ByteBuffer payload, long offset, int chunkSize, int unit, boolean parallel) {
+        return StreamSupport.stream(new BlockSpliterator(payload, offset, chunkSize, unit), parallel);
+    }
+
+    /**
+     * Returns an operation transforming each chunk in place, such as {@code counter::process} for CTR.
+     *
+     * @param transform The transformation, applied at the offset of the chunk.
+     * @return The operation, returning the same chunk.
+     * @see CipherPipeline.Transform
+     */
+    public static UnaryOperator<Chunk> inPlace(CipherPipeline.Transform transform) {
+        return chunk -> {
+            transform.apply(chunk.offset(), chunk.buffer());
+
+            return chunk;
+        };
+    }
+
+    /**
+     * Returns an operation transforming a copy of each chunk, leaving the payload unchanged.
+     *
+     * @param transform The transformation, applied at the offset of the chunk.
+     * @return The operation, returning a new chunk at the same offset.
+     * @see CipherPipeline.Transform
+     */
+    public static UnaryOperator<Chunk> copying(CipherPipeline.Transform transform) {
+        return chunk -> {
+            ByteBuffer copy = ByteBuffer.allocate(chunk.buffer().remaining()).put(chunk.buffer().duplicate()).flip();
+            transform.apply(chunk.offset(), copy);
+
+            return new Chunk(chunk.offset(), copy);
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean tryAdvance(Consumer<? super Chunk> action) {
+        if (from >= to) {
+            return false;
+        }
+
+        action.accept(chunk(from++));
+
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void forEachRemaining(Consumer<? super Chunk> action) {
+        while (from < to) {
+            action.accept(chunk(from++));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Splits on a chunk boundary, handing the first half of the remaining chunks to the new spliterator.
+     */
+    @Override
+    public Spliterator<Chunk> trySplit() {
+        int middle = from + (to - from) / 2;
+
+        if (middle == from) {
+            return null;
+        }
+
+        BlockSpliterator prefix = new BlockSpliterator(payload, offset, chunkSize, from, middle);
+        from = middle;
+
+        return prefix;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return The exact number of remaining chunks.
+     */
+    @Override
+    public long estimateSize() {
+        return to - from;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int characteristics() {
+        return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+    }
+
+    /**
+     * Checks the alignment of a payload and counts its chunks.
+     *
+     * @param payload   The payload.
+     * @param offset    The offset of the payload in the stream.
+     * @param chunkSize The size in bytes of a chunk.
+     * @param unit      The size in bytes of the smallest range the mode can process on its own.
+     * @return The number of chunks.
+     */
+    private static int chunkCount(ByteBuffer payload, long offset, int chunkSize, int unit) {
+        if (unit < 1 || chunkSize < unit || chunkSize % unit != 0 || offset % unit != 0) {
+            throw new IllegalArgumentException("Chunk size and offset must be multiples of the unit " + unit);
+        }
+
+        return (int) ((payload.remaining() + (long) chunkSize - 1) / chunkSize);
+    }
+
+    /**
+     * Returns a chunk of the payload.
+     *
+     * @param index The index of the chunk.
+     * @return The chunk, a view of the payload.
+     */
+    private Chunk chunk(int index) {
+        int start = index * chunkSize;
+        int length = Math.min(chunkSize, payload.limit() - start);
+
+        return new Chunk(offset + start, payload.slice(start, length));
+    }
+
+    /**
+     * Measures the throughput of CTR encryption of a payload by sequential and parallel chunk streams.
+     *
+     * @param args Command-line arguments: optional payload size in bytes.
+     */
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 64 << 20;
+
+        SecureRandom random = new SecureRandom();
+        byte[] key = new byte[AES.BLOCK_SIZE];
+        byte[] counter = new byte[AES.BLOCK_SIZE];
+        random.nextBytes(key);
+        random.nextBytes(counter);
+
+        CTR ctr = new CTR(new TableAES(key), counter);
+        ByteBuffer payload = ByteBuffer.wrap(new byte[size]);
+        byte[] expected = null;
+
+        for (boolean parallel : new boolean[]{false, true}) {
+            long begin = System.nanoTime();
+            byte[] encrypted = stream(payload, 0, parallel).map(copying(ctr::process)).collect(BlockCollectors.toArray(0, size));
+            double seconds = (System.nanoTime() - begin) / 1e9;
+
+            if (expected != null && !Arrays.equals(expected, encrypted)) {
+                throw new IllegalStateException("Parallel and sequential streams disagree");
+            }
+
+            expected = encrypted;
+            System.out.printf("%-10s : %8.2f MB/s%n", parallel ? "parallel" : "sequential", size / seconds / 1e6);
+        }
+    }
+
+}
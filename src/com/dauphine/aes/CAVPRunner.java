@@ -0,0 +1,650 @@
+package com.dauphine.aes;
+
+import javax.crypto.AEADBadTagException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * <p>
+ * Runner of the NIST CAVP known answer (KAT) and Monte Carlo (MCT) tests.
+ * This class provides methods parsing the response files of the AESAVS and GCMVS and checking every engine
+ * supporting the key size of a vector against it, in ECB, CBC, CTR and GCM mode.
+ * </p>
+ *
+ * <p>
+ * The mode of a file is given by its name, as in {@code ECBGFSbox128.rsp}, {@code CBCMCT256.rsp} or
+ * {@code gcmDecrypt128.rsp}. Monte Carlo files chain {@value #MCT_ITERATIONS} operations per record: each record
+ * is checked on its own, then the key, initialization vector and input derived from it are checked against the
+ * next record. Their throughput is reported, the 100,000 chained blocks of a file being a small but repeatable
+ * benchmark of the engine. CBC is chained here over {@link BlockCipher}, the project having no CBC mode.
+ * GCM tags shorter than {@value GCM#TAG_LENGTH} bytes are checked on their prefix through the building blocks
+ * of {@link GCM}.
+ * </p>
+ *
+ * <p>
+ * Records whose key size an engine does not support are counted as skipped in the tally of that engine, and
+ * records no engine supports, or of an unsupported mode, in a tally of their own, so that a run only passes for
+ * the key sizes and modes actually checked.
+ * </p>
+ *
+ * @author Nelson PROIA {@literal <nelson.proia@dauphine.eu>}
+ * @see BlockCipher
+ * @see CTR
+ * @see GCM
+ */
+public final class CAVPRunner {
+
+    /**
+     * The number of chained operations of a Monte Carlo record.
+     */
+    public final static int MCT_ITERATIONS = 1000;
+
+    /**
+     * The engines under test, each with the key sizes in bytes it supports.
+     */
+    private final static List<Engine> ENGINES = List.of(
+            new Engine("AES", key -> new AES(new Block(key)), AES.BLOCK_SIZE),
+            new Engine("OffHeapAES", key -> new OffHeapAES(new Block(key)), AES.BLOCK_SIZE),
+            new Engine("CompactAES", CompactAES::new, AES.BLOCK_SIZE, 2 * AES.BLOCK_SIZE),
+            new Engine("TableAES", TableAES::new, AES.BLOCK_SIZE));
+
+    /**
+     * An engine under test.
+     */
+    private static final class Engine {
+
+        /**
+         * The name of the engine.
+         */
+        private final String name;
+
+        /**
+         * The function constructing the engine from a key.
+         */
+        private final Function<byte[], BlockCipher> factory;
+
+        /**
+         * The key sizes in bytes supported by the engine.
+         */
+        private final int[] keySizes;
+
+        /**
+         * Constructs an engine under test.
+         *
+         * @param name     The name of the engine.
+         * @param factory  The function constructing the engine from a key.
+         * @param keySizes The key sizes in bytes supported by the engine.
+         */
+        private Engine(String name, Function<byte[], BlockCipher> factory, int... keySizes) {
+            this.name = name;
+            this.factory = factory;
+            this.keySizes = keySizes;
+        }
+
+        /**
+         * Returns whether the engine supports a key size.
+         *
+         * @param keySize The key size in bytes.
+         * @return True if supported.
+         */
+        private boolean supports(int keySize) {
+            return Arrays.stream(keySizes).anyMatch(size -> size == keySize);
+        }
+
+    }
+
+    /**
+     * A record of a response file.
+     */
+    private static final class Vector {
+
+        /**
+         * Whether the record tests encryption.
+         */
+        private final boolean encrypt;
+
+        /**
+         * The fields of the record, by name.
+         */
+        private final Map<String, String> fields = new LinkedHashMap<>();
+
+        /**
+         * Constructs an empty record.
+         *
+         * @param encrypt Whether the record tests encryption.
+         */
+        private Vector(boolean encrypt) {
+            this.encrypt = encrypt;
+        }
+
+        /**
+         * Returns whether the record has a field.
+         *
+         * @param name The name of the field.
+         * @return True if the field is present.
+         */
+        private boolean has(String name) {
+            return fields.containsKey(name);
+        }
+
+        /**
+         * Returns the bytes of a hexadecimal field.
+         *
+         * @param name The name of the field.
+         * @return The bytes, empty if the field is absent.
+         */
+        private byte[] bytes(String name) {
+            return HexFormat.of().parseHex(fields.getOrDefault(name, ""));
+        }
+
+        /**
+         * Returns the number of the record.
+         *
+         * @return The value of its count field.
+         */
+        private String count() {
+            return fields.getOrDefault("COUNT", fields.get("Count"));
+        }
+
+    }
+
+    /**
+     * <p>
+     * Tally of the checks of an engine against a response file.
+     * </p>
+     */
+    public static final class Result {
+
+        /**
+         * The name of the response file.
+         */
+        private final String file;
+
+        /**
+         * The name of the engine, null for the records no engine supports.
+         */
+        private final String engine;
+
+        /**
+         * Whether the file holds Monte Carlo records.
+         */
+        private final boolean monteCarlo;
+
+        /**
+         * The number of records passed.
+         */
+        private long passed;
+
+        /**
+         * The number of records failed.
+         */
+        private long failed;
+
+        /**
+         * The number of records skipped.
+         */
+        private long skipped;
+
+        /**
+         * The number of blocks processed.
+         */
+        private long blocks;
+
+        /**
+         * The time spent checking, in nanoseconds.
+         */
+        private long elapsed;
+
+        /**
+         * Constructs an empty tally.
+         *
+         * @param file       The name of the response file.
+         * @param engine     The name of the engine, null for the records no engine supports.
+         * @param monteCarlo Whether the file holds Monte Carlo records.
+         */
+        Result(String file, String engine, boolean monteCarlo) {
+            this.file = file;
+            this.engine = engine;
+            this.monteCarlo = monteCarlo;
+        }
+
+        /**
+         * Returns the number of records passed.
+         *
+         * @return The number of records.
+         */
+        public long passed() {
+            return passed;
+        }
+
+        /**
+         * Returns the number of records failed.
+         *
+         * @return The number of records.
+         */
+        public long failed() {
+            return failed;
+        }
+
+        /**
+         * Returns the number of records skipped, whose key size or mode is not supported.
+         *
+         * @return The number of records.
+         */
+        public long skipped() {
+            return skipped;
+        }
+
+        /**
+         * Returns whether the tally holds the records no engine supports.
+         *
+         * @return True if no engine checked the records of the tally.
+         */
+        public boolean isUnchecked() {
+            return engine == null;
+        }
+
+        /**
+         * Returns the throughput of the checks.
+         *
+         * @return The throughput in bytes per second.
+         */
+        public double throughput() {
+            return blocks * AES.BLOCK_SIZE * 1e9 / Math.max(1, elapsed);
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @return The string representation of the tally.
+         */
+        @Override
+        public String toString() {
+            String line = String.format("%-24s %-12s %5d passed, %d failed, %d skipped", file,
+                    isUnchecked() ? "(no engine)" : engine, passed, failed, skipped);
+
+            return monteCarlo ? line + String.format(" : %d blocks, %.2f MB/s", blocks, throughput() / 1e6) : line;
+        }
+
+    }
+
+    /**
+     * Prevents instantiation.
+     */
+    private CAVPRunner() {
+    }
+
+    /**
+     * Checks every supporting engine against a response file.
+     * Records whose key size an engine does not support are skipped by that engine.
+     *
+     * @param file The response file.
+     * @return The tally of each engine, followed by the tally of the records no engine supports, if any.
+     * @throws IOException If the file cannot be read.
+     */
+    public static List<Result> run(Path file) throws IOException {
+        String name = file.getFileName().toString();
+        String upper = name.toUpperCase(Locale.ROOT);
+        String mode = upper.startsWith("GCM") ? "GCM" : upper.substring(0, Math.min(3, upper.length()));
+
+        boolean monteCarlo = upper.contains("MCT");
+        List<Vector> vectors = parse(file, !upper.contains("DECRYPT"));
+        Result unchecked = new Result(name, null, monteCarlo);
+
+        if (!List.of("ECB", "CBC", "CTR", "GCM").contains(mode)) {
+            unchecked.skipped = vectors.size();
+            return List.of(unchecked);
+        }
+
+        Map<String, Result> results = new LinkedHashMap<>();
+        ENGINES.forEach(engine -> results.put(engine.name, new Result(name, engine.name, monteCarlo)));
+
+        for (int index = 0; index < vectors.size(); ++index) {
+            Vector vector = vectors.get(index);
+            Vector next = index + 1 < vectors.size() && vectors.get(index + 1).encrypt == vector.encrypt ? vectors.get(index + 1) : null;
+            byte[] key = vector.bytes(vector.has("KEY") ? "KEY" : "Key");
+            boolean supported = false;
+
+            for (Engine engine : ENGINES) {
+                Result result = results.get(engine.name);
+
+                if (!engine.supports(key.length)) {
+                    ++result.skipped;
+                    continue;
+                }
+
+                BlockCipher cipher = engine.factory.apply(key);
+                long begin = System.nanoTime();
+                boolean passed;
+
+                try {
+                    passed = monteCarlo ? monteCarlo(mode, vector, next, key, cipher, engine, result) : knownAnswer(mode, vector, cipher, result);
+                } finally {
+                    result.elapsed += System.nanoTime() - begin;
+                    release(cipher);
+                }
+
+                if (passed) {
+                    ++result.passed;
+                } else {
+                    ++result.failed;
+                    System.err.printf("%s : %s record %s failed (%s)%n", name, vector.encrypt ? "encrypt" : "decrypt", vector.count(), engine.name);
+                }
+
+                supported = true;
+            }
+
+            unchecked.skipped += supported ? 0 : 1;
+        }
+
+        List<Result> tallies = new ArrayList<>(results.values());
+
+        if (unchecked.skipped > 0) {
+            tallies.add(unchecked);
+        }
+
+        return tallies;
+    }
+
+    /**
+     * Parses the records of a response file.
+     *
+     * @param file    The response file.
+     * @param encrypt Whether records test encryption until a section says otherwise.
+     * @return The records, in file order.
+     * @throws IOException If the file cannot be read.
+     */
+    private static List<Vector> parse(Path file, boolean encrypt) throws IOException {
+        List<Vector> vectors = new ArrayList<>();
+        Vector vector = null;
+
+        for (String raw : Files.readAllLines(file)) {
+            String line = raw.strip();
+
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            if (line.startsWith("[")) {
+                if (line.equals("[ENCRYPT]") || line.equals("[DECRYPT]")) {
+                    encrypt = line.equals("[ENCRYPT]");
+                }
+
+                vector = null;
+                continue;
+            }
+
+            int equals = line.indexOf('=');
+            String field = equals < 0 ? line : line.substring(0, equals).strip();
+
+            if (field.equalsIgnoreCase("COUNT") || vector == null) {
+                vector = new Vector(encrypt);
+                vectors.add(vector);
+            }
+
+            vector.fields.put(field, equals < 0 ? "" : line.substring(equals + 1).strip());
+        }
+
+        return vectors;
+    }
+
+    /**
+     * Checks a known answer record.
+     *
+     * @param mode   The mode of operation.
+     * @param vector The record.
+     * @param cipher The engine keyed with the record key.
+     * @param result The tally receiving the number of blocks.
+     * @return Whether the engine gives the expected answer.
+     */
+    private static boolean knownAnswer(String mode, Vector vector, BlockCipher cipher, Result result) {
+        if (mode.equals("GCM")) {
+            return galoisCounter(vector, cipher, result);
+        }
+
+        byte[] plain = vector.bytes("PLAINTEXT");
+        byte[] cipherText = vector.bytes("CIPHERTEXT");
+        byte[] input = vector.encrypt ? plain : cipherText;
+        byte[] expected = vector.encrypt ? cipherText : plain;
+        byte[] output;
+
+        result.blocks += (input.length + AES.BLOCK_SIZE - 1) / AES.BLOCK_SIZE;
+
+        switch (mode) {
+            case "ECB" -> output = electronicCodebook(cipher, input, vector.encrypt);
+            case "CBC" -> output = cipherBlockChaining(cipher, vector.bytes("IV"), input, vector.encrypt);
+            default -> output = new CTR(cipher, vector.bytes("IV")).process(0, input);
+        }
+
+        return Arrays.equals(expected, output);
+    }
+
+    /**
+     * Checks a GCM record, whose tag may be truncated and whose decryption may be expected to fail.
+     *
+     * @param vector The record.
+     * @param cipher The engine keyed with the record key.
+     * @param result The tally receiving the number of blocks.
+     * @return Whether the engine gives the expected answer.
+     */
+    private static boolean galoisCounter(Vector vector, BlockCipher cipher, Result result) {
+        GCM gcm = new GCM(cipher);
+        byte[] iv = vector.bytes("IV");
+        byte[] aad = vector.bytes("AAD");
+        byte[] plain = vector.bytes("PT");
+        byte[] cipherText = vector.bytes("CT");
+        byte[] tag = vector.bytes("Tag");
+
+        result.blocks += (cipherText.length + AES.BLOCK_SIZE - 1) / AES.BLOCK_SIZE;
+
+        if (vector.encrypt) {
+            byte[] output = gcm.encrypt(iv, aad, plain);
+
+            return Arrays.equals(cipherText, Arrays.copyOf(output, cipherText.length))
+                    && Arrays.equals(tag, Arrays.copyOfRange(output, cipherText.length, cipherText.length + tag.length));
+        }
+
+        try {
+            byte[] output;
+
+            if (tag.length == GCM.TAG_LENGTH) {
+                byte[] input = Arrays.copyOf(cipherText, cipherText.length + tag.length);
+                System.arraycopy(tag, 0, input, cipherText.length, tag.length);
+
+                output = gcm.decrypt(iv, aad, input);
+            } else {
+                GHASH hash = gcm.hash();
+                hash.updateAAD(aad, 0, aad.length);
+                hash.update(cipherText, 0, cipherText.length);
+                GCM.verify(Arrays.copyOf(gcm.tag(iv, hash), tag.length), tag);
+
+                output = gcm.counter(iv).process(0, cipherText);
+            }
+
+            return !vector.has("FAIL") && Arrays.equals(plain, output);
+        } catch (AEADBadTagException e) {
+            return vector.has("FAIL");
+        }
+    }
+
+    /**
+     * Checks a Monte Carlo record, then the inputs it derives for the next record.
+     *
+     * @param mode   The mode of operation, ECB or CBC.
+     * @param vector The record.
+     * @param next   The next record of the same direction, null if none.
+     * @param key    The key of the record.
+     * @param cipher The engine keyed with the record key.
+     * @param engine The engine under test.
+     * @param result The tally receiving the number of blocks.
+     * @return Whether the engine gives the expected answer.
+     */
+    private static boolean monteCarlo(String mode, Vector vector, Vector next, byte[] key, BlockCipher cipher, Engine engine, Result result) {
+        String inputField = vector.encrypt ? "PLAINTEXT" : "CIPHERTEXT";
+        String outputField = vector.encrypt ? "CIPHERTEXT" : "PLAINTEXT";
+        boolean chained = mode.equals("CBC");
+
+        byte[] input = vector.bytes(inputField);
+        byte[] iv = chained ? vector.bytes("IV") : null;
+        byte[] chain = iv;
+        byte[] previous = null;
+        byte[] output = null;
+
+        for (int j = 0; j < MCT_ITERATIONS; ++j) {
+            previous = output;
+
+            if (!chained) {
+                output = vector.encrypt ? cipher.cipher(input) : cipher.decipher(input);
+                input = output;
+            } else {
+                // The chain is the last cipher text, and each input is the output two steps back, the IV first.
+                output = vector.encrypt ? cipher.cipher(xor(input, chain)) : xor(cipher.decipher(input), chain);
+                chain = vector.encrypt ? output : input;
+                input = j == 0 ? iv : previous;
+            }
+        }
+
+        result.blocks += MCT_ITERATIONS;
+
+        if (!Arrays.equals(vector.bytes(outputField), output)) {
+            return false;
+        }
+
+        if (next == null) {
+            return true;
+        }
+
+        byte[] tail = new byte[2 * AES.BLOCK_SIZE];
+        System.arraycopy(previous, 0, tail, 0, AES.BLOCK_SIZE);
+        System.arraycopy(output, 0, tail, AES.BLOCK_SIZE, AES.BLOCK_SIZE);
+
+        byte[] nextKey = xor(key, Arrays.copyOfRange(tail, tail.length - key.length, tail.length));
+        byte[] nextInput = chained ? previous : output;
+
+        return Arrays.equals(next.bytes(next.has("KEY") ? "KEY" : "Key"), nextKey)
+                && Arrays.equals(next.bytes(inputField), nextInput)
+                && (!chained || Arrays.equals(next.bytes("IV"), output));
+    }
+
+    /**
+     * Encrypts or decrypts whole blocks in ECB mode.
+     *
+     * @param cipher  The engine.
+     * @param input   The input, a multiple of {@value AES#BLOCK_SIZE} bytes.
+     * @param encrypt Whether to encrypt.
+     * @return The output.
+     */
+    private static byte[] electronicCodebook(BlockCipher cipher, byte[] input, boolean encrypt) {
+        byte[] output = new byte[input.length];
+
+        for (int offset = 0; offset < input.length; offset += AES.BLOCK_SIZE) {
+            byte[] block = Arrays.copyOfRange(input, offset, offset + AES.BLOCK_SIZE);
+            System.arraycopy(encrypt ? cipher.cipher(block) : cipher.decipher(block), 0, output, offset, AES.BLOCK_SIZE);
+        }
+
+        return output;
+    }
+
+    /**
+     * Encrypts or decrypts whole blocks in CBC mode.
+     *
+     * @param cipher  The engine.
+     * @param iv      The initialization vector.
+     * @param input   The input, a multiple of {@value AES#BLOCK_SIZE} bytes.
+     * @param encrypt Whether to encrypt.
+     * @return The output.
+     */
+    private static byte[] cipherBlockChaining(BlockCipher cipher, byte[] iv, byte[] input, boolean encrypt) {
+        byte[] output = new byte[input.length];
+        byte[] chain = iv;
+
+        for (int offset = 0; offset < input.length; offset += AES.BLOCK_SIZE) {
+            byte[] block = Arrays.copyOfRange(input, offset, offset + AES.BLOCK_SIZE);
+            byte[] result = encrypt ? cipher.cipher(xor(block, chain)) : xor(cipher.decipher(block), chain);
+
+            System.arraycopy(result, 0, output, offset, AES.BLOCK_SIZE);
+            chain = encrypt ? result : block;
+        }
+
+        return output;
+    }
+
+    /**
+     * XORs two arrays of the same length.
+     *
+     * @param left  The first array.
+     * @param right The second array.
+     * @return A new array holding the XOR.
+     */
+    private static byte[] xor(byte[] left, byte[] right) {
+        byte[] result = new byte[left.length];
+
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = (byte) (left[i] ^ right[i]);
+        }
+
+        return result;
+    }
+
+    /**
+     * Releases the off-heap memory of an engine, if any.
+     *
+     * @param cipher The engine.
+     */
+    private static void release(BlockCipher cipher) {
+        if (cipher instanceof OffHeapAES offHeap) {
+            offHeap.close();
+        }
+    }
+
+    /**
+     * Runs the response files of a directory, or the given files, printing the tally of each engine.
+     * Exits with status 1 if any record fails, or else with status 2 if any record was checked by no engine.
+     *
+     * @param args Command-line arguments: a directory of {@code .rsp} files, or response files.
+     * @throws IOException If a file cannot be read.
+     */
+    public static void main(String[] args) throws IOException {
+        List<Path> files = new ArrayList<>();
+
+        for (String arg : args) {
+            Path path = Path.of(arg);
+
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> entries = Files.list(path)) {
+                    entries.filter(entry -> entry.toString().endsWith(".rsp")).sorted().forEach(files::add);
+                }
+            } else {
+                files.add(path);
+            }
+        }
+
+        long failed = 0;
+        long unchecked = 0;
+
+        for (Path file : files) {
+            for (Result result : run(file)) {
+                System.out.println(result);
+                failed += result.failed();
+                unchecked += result.isUnchecked() ? result.skipped() : 0;
+            }
+        }
+
+        if (failed > 0) {
+            System.exit(1);
+        } else if (unchecked > 0) {
+            System.exit(2);
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.dauphine.aes;
+
+/**
+ * <p>
+ * Implementation of the CMAC message authentication code (NIST SP 800-38B, RFC 4493).
+ * This class provides a method computing the {@value AES#BLOCK_SIZE}-byte CMAC of a message.
+ * </p>
+ *
+ * <p>
+ * The subkeys are derived once at construction, and instances are thread safe as long as the
+ * underlying block cipher is.
+ * </p>
+ *
+ * @author Nelson PROIA {@literal <nelson.proia@dauphine.eu>}
+ * @see BlockCipher
+ * @see SIV
+ */
+public class CMAC {
+
+    /**
+     * The block cipher.
+     *
+     * @see BlockCipher
+     */
+    private final BlockCipher cipher;
+
+    /**
+     * The subkey used when the last block is complete.
+     */
+    private final byte[] completeKey;
+
+    /**
+     * The subkey used when the last block is padded.
+     */
+    private final byte[] paddedKey;
+
+    /**
+     * Constructs a CMAC on top of the given block cipher.
+     *
+     * @param cipher The block cipher.
+     * @see BlockCipher
+     */
+    public CMAC(BlockCipher cipher) {
+        this.cipher = cipher;
+        this.completeKey = doubling(cipher.cipher(new byte[AES.BLOCK_SIZE]));
+        this.paddedKey = doubling(completeKey);
+    }
+
+    /**
+     * Computes the CMAC of the given message.
+     *
+     * @param message The message.
+     * @return The {@value AES#BLOCK_SIZE} bytes of the CMAC.
+     */
+    public byte[] mac(byte[] message) {
+        int blocks = Math.max(1, (message.length + AES.BLOCK_SIZE - 1) / AES.BLOCK_SIZE);
+        int lastLength = message.length - (blocks - 1) * AES.BLOCK_SIZE;
+        byte[] state = new byte[AES.BLOCK_SIZE];
+
+        for (int block = 0; block < blocks - 1; ++block) {
+            for (int i = 0; i < AES.BLOCK_SIZE; ++i) {
+                state[i] ^= message[block * AES.BLOCK_SIZE + i];
+            }
+
+            state = cipher.cipher(state);
+        }
+
+        byte[] subkey = lastLength == AES.BLOCK_SIZE ? completeKey : paddedKey;
+
+        for (int i = 0; i < AES.BLOCK_SIZE; ++i) {
+            int value = i < lastLength ? message[(blocks - 1) * AES.BLOCK_SIZE + i] : (i == lastLength ? 0x80 : 0);
+            state[i] ^= (byte) (value ^ subkey[i]);
+        }
+
+        return cipher.cipher(state);
+    }
+
+    /**
+     * Multiplies a block by X in GF(2^128), without branching on its value ("dbl" of RFC 5297).
+     *
+     * @param block The {@value AES#BLOCK_SIZE} bytes of the block.
+     * @return The doubled block.
+     */
+    static byte[] doubling(byte[] block) {
+        byte[] result = new byte[AES.BLOCK_SIZE];
+        int reduction = -((block[0] & 0xFF) >>> 7) & 0x87;
+
+        for (int i = 0; i < AES.BLOCK_SIZE - 1; ++i) {
+            result[i] = (byte) ((block[i] << 1) | ((block[i + 1] & 0xFF) >>> 7));
+        }
+
+        result[AES.BLOCK_SIZE - 1] = (byte) ((block[AES.BLOCK_SIZE - 1] << 1) ^ reduction);
+
+        return result;
+    }
+
+}
@@ -0,0 +1,194 @@
+package com.dauphine.aes;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * Implementation of the counter (CTR) mode of operation.
+ * This class provides methods for encrypting and decrypting data at any offset of the key stream.
+ * </p>
+ *
+ * <p>
+ * The key stream byte at offset {@code o} only depends on the counter block {@code o / 16}, so any
+ * range of the stream can be processed on its own: chunks may start in the middle of a block and
+ * be processed in any order or in parallel. Encryption and decryption are the same operation.
+ * The counter is incremented modulo 2^(8 * {@code counterSize}), on the rightmost
+ * {@code counterSize} bytes of the counter block.
+ * </p>
+ *
+ * @author Nelson PROIA {@literal <nelson.proia@dauphine.eu>}
+ * @see AES
+ * @see BlockCipher
+ * @see GCM
+ */
+public class CTR {
+
+    /**
+     * The block cipher generating the key stream.
+     *
+     * @see BlockCipher
+     */
+    private final BlockCipher cipher;
+
+    /**
+     * The counter block of the first key stream block.
+     */
+    private final byte[] initialCounter;
+
+    /**
+     * The number of rightmost bytes of the counter block that are incremented.
+     */
+    private final int counterSize;
+
+    /**
+     * Constructs a CTR mode with a full {@value AES#BLOCK_SIZE}-byte counter.
+     *
+     * @param cipher         The block cipher generating the key stream.
+     * @param initialCounter The {@value AES#BLOCK_SIZE} bytes of the first counter block.
+     * @see BlockCipher
+     */
+    public CTR(BlockCipher cipher, byte[] initialCounter) {
+        this(cipher, initialCounter, AES.BLOCK_SIZE);
+    }
+
+    /**
+     * Constructs a CTR mode.
+     *
+     * @param cipher         The block cipher generating the key stream.
+     * @param initialCounter The {@value AES#BLOCK_SIZE} bytes of the first counter block.
+     * @param counterSize    The number of rightmost bytes of the counter block that are incremented.
+     * @see BlockCipher
+     */
+    public CTR(BlockCipher cipher, byte[] initialCounter, int counterSize) {
+        if (initialCounter.length != AES.BLOCK_SIZE) {
+            throw new IllegalArgumentException("Counter block must be " + AES.BLOCK_SIZE + " bytes: " + initialCounter.length);
+        }
+
+        if (counterSize < 1 || counterSize > AES.BLOCK_SIZE) {
+            throw new IllegalArgumentException("Counter size must be in [1, " + AES.BLOCK_SIZE + "]: " + counterSize);
+        }
+
+        this.cipher = cipher;
+        this.initialCounter = initialCounter.clone();
+        this.counterSize = counterSize;
+    }
+
+    /**
+     * XORs the input with the key stream starting at the given stream offset.
+     * Input and output may be the same array.
+     *
+     * @param offset       The offset in the key stream of the first input byte.
+     * @param input        The input array.
+     * @param inputOffset  The offset of the first input byte.
+     * @param output       The output array.
+     * @param outputOffset The offset of the first output byte.
+     * @param length       The number of bytes to process.
+     */
+    public void process(long offset, byte[] input, int inputOffset, byte[] output, int outputOffset, int length) {
+        byte[] counter = counterAt(offset / AES.BLOCK_SIZE);
+        int skip = (int) (offset % AES.BLOCK_SIZE);
+
+        for (int done = 0; done < length; ) {
+            byte[] keyStream = cipher.cipher(counter);
+            int count = Math.min(AES.BLOCK_SIZE - skip, length - done);
+
+            for (int i = 0; i < count; ++i) {
+                output[outputOffset + done + i] = (byte) (input[inputOffset + done + i] ^ keyStream[skip + i]);
+            }
+
+            done += count;
+            skip = 0;
+            increment(counter);
+        }
+    }
+
+    /**
+     * XORs the input with the key stream starting at the given stream offset.
+     *
+     * @param offset The offset in the key stream of the first input byte.
+     * @param input  The input bytes.
+     * @return The output bytes.
+     */
+    public byte[] process(long offset, byte[] input) {
+        byte[] output = new byte[input.length];
+        process(offset, input, 0, output, 0, input.length);
+
+        return output;
+    }
+
+    /**
+     * XORs in place the remaining bytes of the buffer with the key stream starting at the given stream offset.
+     * The position and limit of the buffer are left unchanged.
+     *
+     * @param offset The offset in the key stream of the byte at the buffer position.
+     * @param buffer The buffer.
+     */
+    public void process(long offset, ByteBuffer buffer) {
+        byte[] counter = counterAt(offset / AES.BLOCK_SIZE);
+        int skip = (int) (offset % AES.BLOCK_SIZE);
+
+        for (int index = buffer.position(); index < buffer.limit(); ) {
+            byte[] keyStream = cipher.cipher(counter);
+            int count = Math.min(AES.BLOCK_SIZE - skip, buffer.limit() - index);
+
+            for (int i = 0; i < count; ++i, ++index) {
+                buffer.put(index, (byte) (buffer.get(index) ^ keyStream[skip + i]));
+            }
+
+            skip = 0;
+            increment(counter);
+        }
+    }
+
+    /**
+     * XORs in place the remaining bytes of the buffer with the key stream starting at the given stream offset,
+     * letting the controller choose between the calling thread and parallel chunks.
+     * The position and limit of the buffer are left unchanged.
+     *
+     * @param offset     The offset in the key stream of the byte at the buffer position.
+     * @param buffer     The buffer.
+     * @param controller The controller splitting the work.
+     * @return The decision of the controller.
+     * @see ParallelismController
+     */
+    public ParallelismController.Decision process(long offset, ByteBuffer buffer, ParallelismController controller) {
+        // Chunks are block aligned whenever the offset is, which saves a key stream block per chunk.
+        int unit = offset % AES.BLOCK_SIZE == 0 ? AES.BLOCK_SIZE : 1;
+
+        return controller.process(cipher.getClass(), "CTR", buffer, offset, unit, this::process);
+    }
+
+    /**
+     * Computes the counter block of the given key stream block.
+     *
+     * @param index The index of the key stream block.
+     * @return The counter block.
+     */
+    public byte[] counterAt(long index) {
+        byte[] counter = initialCounter.clone();
+        int carry = 0;
+
+        for (int i = AES.BLOCK_SIZE - 1; i >= AES.BLOCK_SIZE - counterSize; --i) {
+            int sum = (counter[i] & 0xFF) + (int) (index & 0xFF) + carry;
+            counter[i] = (byte) sum;
+            carry = sum >>> 8;
+            index >>>= 8;
+        }
+
+        return counter;
+    }
+
+    /**
+     * Increments the counter part of the given counter block by one.
+     *
+     * @param counter The counter block.
+     */
+    private void increment(byte[] counter) {
+        for (int i = AES.BLOCK_SIZE - 1; i >= AES.BLOCK_SIZE - counterSize; --i) {
+            if (++counter[i] != 0) {
+                break;
+            }
+        }
+    }
+
+}
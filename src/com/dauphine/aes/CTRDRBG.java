@@ -0,0 +1,282 @@
+package com.dauphine.aes;
+
+import java.util.Arrays;
+import java.util.function.Function;
+
+/**
+ * <p>
+ * Implementation of the NIST SP 800-90A CTR_DRBG mechanism on top of AES-128,
+ * without derivation function.
+ * This class provides methods for instantiating, reseeding and generating pseudo random bytes.
+ * </p>
+ *
+ * <p>
+ * The internal state is made of the current key schedule and the counter block {@code V}.
+ * The schedule is built by a factory of {@link BlockCipher}s, {@link TableAES} by default. Each update
+ * replaces it, and the old schedule is wiped when its engine supports it ({@link TableAES#destroy()},
+ * {@link OffHeapAES#close()}), so that a later compromise of the state does not reveal past outputs.
+ * An instance is not thread safe: use one instance per thread, see {@link DRBGRandom}.
+ * </p>
+ *
+ * @author Nelson PROIA {@literal <nelson.proia@dauphine.eu>}
+ * @see BlockCipher
+ * @see TableAES
+ * @see DRBGRandom
+ */
+public class CTRDRBG {
+
+    /**
+     * The length in bytes of the key used by the underlying AES.
+     */
+    public final static int KEY_LENGTH = 16;
+
+    /**
+     * The length in bytes of the seed material ({@code keylen + blocklen}).
+     */
+    public final static int SEED_LENGTH = KEY_LENGTH + AES.BLOCK_SIZE;
+
+    /**
+     * The maximum number of bytes returned by a single generate request (2^19 bits).
+     */
+    public final static int MAX_REQUEST_LENGTH = 1 << 16;
+
+    /**
+     * The default number of generate requests allowed between two reseeds.
+     */
+    public final static long DEFAULT_RESEED_INTERVAL = 1L << 20;
+
+    /**
+     * The maximum number of generate requests allowed between two reseeds.
+     */
+    public final static long MAX_RESEED_INTERVAL = 1L << 48;
+
+    /**
+     * The default factory building the key schedule from a key.
+     */
+    public final static Function<byte[], BlockCipher> DEFAULT_ENGINE = TableAES::new;
+
+    /**
+     * The number of generate requests allowed between two reseeds.
+     */
+    private final long reseedInterval;
+
+    /**
+     * The factory building the key schedule from a key.
+     */
+    private final Function<byte[], BlockCipher> engines;
+
+    /**
+     * The counter block {@code V}.
+     */
+    private final byte[] counter;
+
+    /**
+     * The engine keyed with the current DRBG key.
+     *
+     * @see BlockCipher
+     */
+    private BlockCipher engine;
+
+    /**
+     * The number of generate requests since the last (re)seed.
+     */
+    private long reseedCounter;
+
+    /**
+     * Constructs (instantiates) a CTR_DRBG with the default reseed interval.
+     *
+     * @param entropyInput    The {@value #SEED_LENGTH} bytes of full entropy input.
+     * @param personalization The personalization string, at most {@value #SEED_LENGTH} bytes, may be null.
+     */
+    public CTRDRBG(byte[] entropyInput, byte[] personalization) {
+        this(entropyInput, personalization, DEFAULT_RESEED_INTERVAL);
+    }
+
+    /**
+     * Constructs (instantiates) a CTR_DRBG.
+     *
+     * @param entropyInput    The {@value #SEED_LENGTH} bytes of full entropy input.
+     * @param personalization The personalization string, at most {@value #SEED_LENGTH} bytes, may be null.
+     * @param reseedInterval  The number of generate requests allowed between two reseeds.
+     */
+    public CTRDRBG(byte[] entropyInput, byte[] personalization, long reseedInterval) {
+        this(entropyInput, personalization, reseedInterval, DEFAULT_ENGINE);
+    }
+
+    /**
+     * Constructs (instantiates) a CTR_DRBG on the given engines.
+     *
+     * @param entropyInput    The {@value #SEED_LENGTH} bytes of full entropy input.
+     * @param personalization The personalization string, at most {@value #SEED_LENGTH} bytes, may be null.
+     * @param reseedInterval  The number of generate requests allowed between two reseeds.
+     * @param engines         The factory building the key schedule from {@value #KEY_LENGTH} bytes of key.
+     */
+    public CTRDRBG(byte[] entropyInput, byte[] personalization, long reseedInterval, Function<byte[], BlockCipher> engines) {
+        if (reseedInterval < 1 || reseedInterval > MAX_RESEED_INTERVAL) {
+            throw new IllegalArgumentException("Reseed interval must be in [1, 2^48]: " + reseedInterval);
+        }
+
+        this.reseedInterval = reseedInterval;
+        this.engines = engines;
+        this.counter = new byte[AES.BLOCK_SIZE];
+        this.engine = engines.apply(new byte[KEY_LENGTH]);
+
+        update(seedMaterial(entropyInput, personalization));
+        reseedCounter = 1;
+    }
+
+    /**
+     * Reseeds the DRBG with fresh entropy.
+     *
+     * @param entropyInput    The {@value #SEED_LENGTH} bytes of full entropy input.
+     * @param additionalInput The additional input, at most {@value #SEED_LENGTH} bytes, may be null.
+     */
+    public void reseed(byte[] entropyInput, byte[] additionalInput) {
+        update(seedMaterial(entropyInput, additionalInput));
+        reseedCounter = 1;
+    }
+
+    /**
+     * Tells whether the reseed interval has been reached.
+     *
+     * @return True if {@link #reseed(byte[], byte[])} must be called before the next generate request.
+     */
+    public boolean needsReseed() {
+        return reseedCounter > reseedInterval;
+    }
+
+    /**
+     * Generates pseudo random bytes.
+     *
+     * @param output          The array receiving the bytes.
+     * @param offset          The offset of the first byte to write.
+     * @param length          The number of bytes to write, at most {@value #MAX_REQUEST_LENGTH}.
+     * @param additionalInput The additional input, at most {@value #SEED_LENGTH} bytes, may be null.
+     * @throws IllegalStateException If the DRBG must be reseeded first.
+     */
+    public void generate(byte[] output, int offset, int length, byte[] additionalInput) {
+        if (length > MAX_REQUEST_LENGTH) {
+            throw new IllegalArgumentException("Request length exceeds " + MAX_REQUEST_LENGTH + " bytes: " + length);
+        }
+
+        if (needsReseed()) {
+            throw new IllegalStateException("Reseed required");
+        }
+
+        byte[] additional = new byte[SEED_LENGTH];
+
+        if (additionalInput != null && additionalInput.length > 0) {
+            additional = pad(additionalInput);
+            update(additional);
+        }
+
+        for (int written = 0; written < length; written += AES.BLOCK_SIZE) {
+            increment(counter);
+            byte[] keystream = engine.cipher(counter);
+
+            System.arraycopy(keystream, 0, output, offset + written, Math.min(AES.BLOCK_SIZE, length - written));
+        }
+
+        update(additional);
+        ++reseedCounter;
+    }
+
+    /**
+     * Wipes the internal state. The DRBG must not be used afterwards.
+     */
+    public void destroy() {
+        Arrays.fill(counter, (byte) 0);
+        wipe(engine);
+        engine = null;
+        reseedCounter = Long.MAX_VALUE;
+    }
+
+    /**
+     * Performs the CTR_DRBG_Update function with the given provided data.
+     *
+     * @param providedData The {@value #SEED_LENGTH} bytes of provided data.
+     */
+    private void update(byte[] providedData) {
+        byte[] temp = new byte[SEED_LENGTH];
+
+        for (int i = 0; i < SEED_LENGTH; i += AES.BLOCK_SIZE) {
+            increment(counter);
+            System.arraycopy(engine.cipher(counter), 0, temp, i, AES.BLOCK_SIZE);
+        }
+
+        for (int i = 0; i < SEED_LENGTH; ++i) {
+            temp[i] ^= providedData[i];
+        }
+
+        byte[] key = Arrays.copyOfRange(temp, 0, KEY_LENGTH);
+        BlockCipher previous = engine;
+
+        engine = engines.apply(key);
+        wipe(previous);
+        System.arraycopy(temp, KEY_LENGTH, counter, 0, AES.BLOCK_SIZE);
+        Arrays.fill(key, (byte) 0);
+        Arrays.fill(temp, (byte) 0);
+    }
+
+    /**
+     * Wipes the key schedule of an engine, if the engine supports it.
+     *
+     * @param engine The engine, no longer used.
+     */
+    private static void wipe(BlockCipher engine) {
+        if (engine instanceof TableAES table) {
+            table.destroy();
+        } else if (engine instanceof OffHeapAES offHeap) {
+            offHeap.close();
+        }
+    }
+
+    /**
+     * Computes the seed material as the entropy input XOR the padded extra input.
+     *
+     * @param entropyInput The {@value #SEED_LENGTH} bytes of entropy input.
+     * @param extraInput   The personalization string or additional input, may be null.
+     * @return The seed material.
+     */
+    private static byte[] seedMaterial(byte[] entropyInput, byte[] extraInput) {
+        if (entropyInput.length != SEED_LENGTH) {
+            throw new IllegalArgumentException("Entropy input must be " + SEED_LENGTH + " bytes: " + entropyInput.length);
+        }
+
+        byte[] seedMaterial = extraInput == null ? new byte[SEED_LENGTH] : pad(extraInput);
+
+        for (int i = 0; i < SEED_LENGTH; ++i) {
+            seedMaterial[i] ^= entropyInput[i];
+        }
+
+        return seedMaterial;
+    }
+
+    /**
+     * Pads the given input with zeros to {@value #SEED_LENGTH} bytes.
+     *
+     * @param input The input, at most {@value #SEED_LENGTH} bytes.
+     * @return The padded input.
+     */
+    private static byte[] pad(byte[] input) {
+        if (input.length > SEED_LENGTH) {
+            throw new IllegalArgumentException("Input exceeds " + SEED_LENGTH + " bytes: " + input.length);
+        }
+
+        return Arrays.copyOf(input, SEED_LENGTH);
+    }
+
+    /**
+     * Increments the given big-endian counter block by one, modulo 2^128.
+     *
+     * @param counter The counter block.
+     */
+    static void increment(byte[] counter) {
+        for (int i = counter.length - 1; i >= 0; --i) {
+            if (++counter[i] != 0) {
+                break;
+            }
+        }
+    }
+
+}
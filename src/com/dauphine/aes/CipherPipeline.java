@@ -0,0 +1,532 @@
+package com.dauphine.aes;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>
+ * Pipelined bulk encryption engine overlapping I/O and cryptography.
+ * This class provides methods for encrypting or decrypting a whole channel or file into another one.
+ * </p>
+ *
+ * <p>
+ * A ring of {@code depth} preallocated direct buffers of {@code bufferSize} bytes is shared by one
+ * reader thread, {@code workers} crypto threads and one writer thread, all running concurrently:
+ * the reader fills the slot of chunk {@code n} at index {@code n % depth} once the writer has
+ * released it, any worker transforms it in place, and the writer writes the chunks back in order.
+ * Each run returns a {@link Report} with the utilization of every stage, telling which one is the
+ * bottleneck.
+ * </p>
+ *
+ * @author Nelson PROIA {@literal <nelson.proia@dauphine.eu>}
+ * @see CTR
+ */
+public class CipherPipeline {
+
+    /**
+     * The default size in bytes of a ring buffer slot.
+     */
+    public final static int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+    /**
+     * The default number of ring buffer slots.
+     */
+    public final static int DEFAULT_DEPTH = 16;
+
+    /**
+     * Transformation applied in place to each chunk of the stream by the crypto workers.
+     * Implementations must be thread safe, chunks being transformed concurrently and in any order.
+     */
+    @FunctionalInterface
+    public interface Transform {
+
+        /**
+         * Transforms in place the remaining bytes of the chunk.
+         *
+         * @param offset The offset of the chunk in the stream.
+         * @param chunk  The chunk, whose position and limit must be left unchanged.
+         */
+        void apply(long offset, ByteBuffer chunk);
+
+    }
+
+    /**
+     * Callback notified by the writer thread each time a chunk has been written.
+     */
+    @FunctionalInterface
+    public interface Progress {
+
+        /**
+         * Notifies that every byte of the stream before the given offset has been written.
+         *
+         * @param offset The offset in the stream following the last written byte.
+         * @throws IOException If the callback fails, which fails the run.
+         */
+        void written(long offset) throws IOException;
+
+    }
+
+    /**
+     * The slot is free and can be filled by the reader.
+     */
+    private final static int FREE = 0;
+
+    /**
+     * The slot has been filled by the reader and waits for a worker.
+     */
+    private final static int FILLED = 1;
+
+    /**
+     * The slot has been transformed and waits for the writer.
+     */
+    private final static int PROCESSED = 2;
+
+    /**
+     * The slot marks the end of the stream.
+     */
+    private final static int END = 3;
+
+    /**
+     * The transformation applied to each chunk.
+     */
+    private final Transform transform;
+
+    /**
+     * The number of ring buffer slots.
+     */
+    private final int depth;
+
+    /**
+     * The number of crypto workers.
+     */
+    private final int workers;
+
+    /**
+     * The ring buffer slots, preallocated once and reused by every run.
+     */
+    private final Slot[] ring;
+
+    /**
+     * Constructs a pipeline encrypting or decrypting in CTR mode.
+     *
+     * @param counter    The CTR mode.
+     * @param bufferSize The size in bytes of a ring buffer slot, preferably a multiple of {@value AES#BLOCK_SIZE}.
+     * @param depth      The number of ring buffer slots.
+     * @param workers    The number of crypto workers.
+     * @see CTR
+     */
+    public CipherPipeline(CTR counter, int bufferSize, int depth, int workers) {
+        this(counter::process, bufferSize, depth, workers);
+    }
+
+    /**
+     * Constructs a pipeline applying the given transformation.
+     *
+     * @param transform  The transformation applied to each chunk.
+     * @param bufferSize The size in bytes of a ring buffer slot.
+     * @param depth      The number of ring buffer slots.
+     * @param workers    The number of crypto workers.
+     */
+    public CipherPipeline(Transform transform, int bufferSize, int depth, int workers) {
+        if (bufferSize < 1 || depth < 1 || workers < 1) {
+            throw new IllegalArgumentException("Buffer size, depth and workers must be positive");
+        }
+
+        this.transform = transform;
+        this.depth = depth;
+        this.workers = workers;
+        this.ring = new Slot[depth];
+
+        for (int i = 0; i < depth; ++i) {
+            ring[i] = new Slot(ByteBuffer.allocateDirect(bufferSize));
+        }
+    }
+
+    /**
+     * Transforms a whole file into another one.
+     *
+     * @param input  The input file.
+     * @param output The output file, created or truncated.
+     * @return The report of the run.
+     * @throws IOException If an I/O error occurs or a stage fails.
+     */
+    public Report run(Path input, Path output) throws IOException {
+        try (FileChannel source = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel target = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            return run(source, target);
+        }
+    }
+
+    /**
+     * Transforms a whole channel into another one. Runs of the same pipeline must not overlap.
+     *
+     * @param input  The input channel, read until its end.
+     * @param output The output channel.
+     * @return The report of the run.
+     * @throws IOException If an I/O error occurs or a stage fails.
+     */
+    public Report run(ReadableByteChannel input, WritableByteChannel output) throws IOException {
+        return run(input, output, 0, null);
+    }
+
+    /**
+     * Transforms the rest of a channel into another one, the first byte read being at the given offset
+     * of the stream. Runs of the same pipeline must not overlap.
+     *
+     * @param input    The input channel, read until its end.
+     * @param output   The output channel.
+     * @param offset   The offset in the stream of the first byte read.
+     * @param progress The callback notified after each written chunk, may be null.
+     * @return The report of the run.
+     * @throws IOException If an I/O error occurs or a stage fails.
+     */
+    public synchronized Report run(ReadableByteChannel input, WritableByteChannel output, long offset, Progress progress) throws IOException {
+        for (Slot slot : ring) {
+            slot.state = FREE;
+        }
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        BlockingQueue<Slot> filled = new ArrayBlockingQueue<>(depth + workers);
+        AtomicLong readBusy = new AtomicLong(), workBusy = new AtomicLong(), writeBusy = new AtomicLong();
+        AtomicLong bytes = new AtomicLong();
+        Thread[] threads = new Thread[workers + 2];
+
+        threads[0] = new Thread(() -> {
+            long position = offset;
+
+            try {
+                for (long sequence = 0; ; ++sequence) {
+                    Slot slot = ring[(int) (sequence % depth)];
+                    slot.await(FREE);
+
+                    long start = System.nanoTime();
+                    ByteBuffer buffer = slot.buffer.clear();
+                    int read = 0;
+
+                    while (buffer.hasRemaining() && read >= 0) {
+                        read = input.read(buffer);
+                    }
+
+                    buffer.flip();
+                    readBusy.addAndGet(System.nanoTime() - start);
+
+                    if (!buffer.hasRemaining()) {
+                        slot.set(END);
+                        break;
+                    }
+
+                    slot.offset = position;
+                    position += buffer.remaining();
+                    slot.set(FILLED);
+                    filled.put(slot);
+                }
+
+                for (int i = 0; i < workers; ++i) {
+                    filled.put(new Slot(null));
+                }
+            } catch (Throwable e) {
+                fail(failure, e, threads);
+            }
+        }, "pipeline-reader");
+
+        for (int i = 1; i <= workers; ++i) {
+            threads[i] = new Thread(() -> {
+                try {
+                    for (Slot slot = filled.take(); slot.buffer != null; slot = filled.take()) {
+                        long start = System.nanoTime();
+                        transform.apply(slot.offset, slot.buffer);
+                        workBusy.addAndGet(System.nanoTime() - start);
+                        slot.set(PROCESSED);
+                    }
+                } catch (Throwable e) {
+                    fail(failure, e, threads);
+                }
+            }, "pipeline-worker-" + i);
+        }
+
+        threads[workers + 1] = new Thread(() -> {
+            try {
+                for (long sequence = 0; ; ++sequence) {
+                    Slot slot = ring[(int) (sequence % depth)];
+
+                    if (slot.await(PROCESSED) == END) {
+                        break;
+                    }
+
+                    long start = System.nanoTime();
+                    long end = slot.offset + slot.buffer.remaining();
+
+                    while (slot.buffer.hasRemaining()) {
+                        bytes.addAndGet(output.write(slot.buffer));
+                    }
+
+                    if (progress != null) {
+                        progress.written(end);
+                    }
+
+                    writeBusy.addAndGet(System.nanoTime() - start);
+                    slot.set(FREE);
+                }
+            } catch (Throwable e) {
+                fail(failure, e, threads);
+            }
+        }, "pipeline-writer");
+
+        long begin = System.nanoTime();
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            fail(failure, e, threads);
+            Thread.currentThread().interrupt();
+        }
+
+        Throwable cause = failure.get();
+
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        } else if (cause != null) {
+            throw new IOException("Pipeline stage failed", cause);
+        }
+
+        return new Report(bytes.get(), System.nanoTime() - begin, readBusy.get(), workBusy.get(), writeBusy.get(), workers);
+    }
+
+    /**
+     * Records the first failure and interrupts every stage.
+     *
+     * @param failure The first failure.
+     * @param e       The failure.
+     * @param threads The stage threads.
+     */
+    private static void fail(AtomicReference<Throwable> failure, Throwable e, Thread[] threads) {
+        if (failure.compareAndSet(null, e)) {
+            for (Thread thread : threads) {
+                if (thread != null) {
+                    thread.interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * A ring buffer slot: a reusable direct buffer and the state of the chunk it holds.
+     */
+    private static final class Slot {
+
+        /**
+         * The buffer holding the chunk, or null for the end marker of the workers.
+         */
+        final ByteBuffer buffer;
+
+        /**
+         * The offset of the chunk in the stream.
+         */
+        long offset;
+
+        /**
+         * The state of the slot.
+         */
+        int state;
+
+        /**
+         * Constructs a free slot.
+         *
+         * @param buffer The buffer of the slot.
+         */
+        Slot(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        /**
+         * Waits until the slot reaches the given state or the end state.
+         *
+         * @param expected The expected state.
+         * @return The reached state.
+         * @throws InterruptedException If interrupted while waiting.
+         */
+        synchronized int await(int expected) throws InterruptedException {
+            while (state != expected && state != END) {
+                wait();
+            }
+
+            return state;
+        }
+
+        /**
+         * Sets the state of the slot and wakes up the waiting stages.
+         *
+         * @param state The new state.
+         */
+        synchronized void set(int state) {
+            this.state = state;
+            notifyAll();
+        }
+
+    }
+
+    /**
+     * <p>
+     * Report of a pipeline run: volume, duration and stage utilization.
+     * The utilization of a stage is the fraction of the run its threads spent working rather than
+     * waiting for another stage.
+     * </p>
+     */
+    public static final class Report {
+
+        /**
+         * The number of bytes written.
+         */
+        private final long bytes;
+
+        /**
+         * The duration of the run in nanoseconds.
+         */
+        private final long elapsed;
+
+        /**
+         * The time spent reading, in nanoseconds.
+         */
+        private final long readBusy;
+
+        /**
+         * The time spent transforming, summed over the workers, in nanoseconds.
+         */
+        private final long workBusy;
+
+        /**
+         * The time spent writing, in nanoseconds.
+         */
+        private final long writeBusy;
+
+        /**
+         * The number of crypto workers.
+         */
+        private final int workers;
+
+        /**
+         * Constructs a report.
+         *
+         * @param bytes     The number of bytes written.
+         * @param elapsed   The duration of the run in nanoseconds.
+         * @param readBusy  The time spent reading, in nanoseconds.
+         * @param workBusy  The time spent transforming, summed over the workers, in nanoseconds.
+         * @param writeBusy The time spent writing, in nanoseconds.
+         * @param workers   The number of crypto workers.
+         */
+        Report(long bytes, long elapsed, long readBusy, long workBusy, long writeBusy, int workers) {
+            this.bytes = bytes;
+            this.elapsed = Math.max(1, elapsed);
+            this.readBusy = readBusy;
+            this.workBusy = workBusy;
+            this.writeBusy = writeBusy;
+            this.workers = workers;
+        }
+
+        /**
+         * Returns the number of bytes written.
+         *
+         * @return The number of bytes.
+         */
+        public long bytes() {
+            return bytes;
+        }
+
+        /**
+         * Returns the duration of the run.
+         *
+         * @return The duration in nanoseconds.
+         */
+        public long elapsedNanos() {
+            return elapsed;
+        }
+
+        /**
+         * Returns the throughput of the run.
+         *
+         * @return The throughput in bytes per second.
+         */
+        public double throughput() {
+            return bytes * 1e9 / elapsed;
+        }
+
+        /**
+         * Returns the utilization of the reader thread.
+         *
+         * @return The utilization, in [0, 1].
+         */
+        public double readerUtilization() {
+            return (double) readBusy / elapsed;
+        }
+
+        /**
+         * Returns the average utilization of the crypto workers.
+         *
+         * @return The utilization, in [0, 1].
+         */
+        public double workerUtilization() {
+            return (double) workBusy / elapsed / workers;
+        }
+
+        /**
+         * Returns the utilization of the writer thread.
+         *
+         * @return The utilization, in [0, 1].
+         */
+        public double writerUtilization() {
+            return (double) writeBusy / elapsed;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @return The string representation of the report.
+         */
+        @Override
+        public String toString() {
+            return String.format("%d bytes in %.3f s (%.2f MB/s) : reader %.0f%%, %d workers %.0f%%, writer %.0f%%",
+                    bytes, elapsed / 1e9, throughput() / 1e6, 100 * readerUtilization(), workers,
+                    100 * workerUtilization(), 100 * writerUtilization());
+        }
+
+    }
+
+    /**
+     * Encrypts a file in CTR mode with a random key and reports the stage utilization.
+     *
+     * @param args Command-line arguments: input file, output file, and optionally buffer size, depth and workers.
+     * @throws IOException If an I/O error occurs.
+     */
+    public static void main(String[] args) throws IOException {
+        int bufferSize = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_BUFFER_SIZE;
+        int depth = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_DEPTH;
+        int workers = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+
+        SecureRandom random = new SecureRandom();
+        byte[] key = new byte[AES.BLOCK_SIZE];
+        byte[] counter = new byte[AES.BLOCK_SIZE];
+        random.nextBytes(key);
+        random.nextBytes(counter);
+
+        CipherPipeline pipeline = new CipherPipeline(new CTR(new AES(new Block(key)), counter), bufferSize, depth, workers);
+        System.out.println(pipeline.run(Path.of(args[0]), Path.of(args[1])));
+    }
+
+}
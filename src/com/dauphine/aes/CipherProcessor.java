@@ -0,0 +1,497 @@
+package com.dauphine.aes;
+
+import javax.crypto.AEADBadTagException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>
+ * Reactive processing stage encrypting or decrypting a stream of {@link ByteBuffer} chunks
+ * in CTR or GCM mode.
+ * This class provides a {@link Flow.Processor} that can sit between a reader and a writer stage
+ * without buffering the whole payload.
+ * </p>
+ *
+ * <p>
+ * Chunks may have any size: each one is processed at its offset in the key stream, so partial
+ * blocks are carried across chunk boundaries. At most {@code parallelism} chunks are requested
+ * from upstream ahead of downstream demand, and they are processed on the given executor (or
+ * in the calling thread without executor) while being emitted downstream in their original order.
+ * </p>
+ *
+ * <p>
+ * In GCM encryption, the tag is emitted as a last chunk of {@value GCM#TAG_LENGTH} bytes. In GCM
+ * decryption, the last {@value GCM#TAG_LENGTH} bytes of the stream are taken as the tag: the
+ * plain text is released before the tag is verified, and the stream fails with an
+ * {@link AEADBadTagException} instead of completing if the tag does not match.
+ * This processor supports a single subscriber.
+ * </p>
+ *
+ * @author Nelson PROIA {@literal <nelson.proia@dauphine.eu>}
+ * @see CTR
+ * @see GCM
+ */
+public class CipherProcessor implements Flow.Processor<ByteBuffer, ByteBuffer> {
+
+    /**
+     * The CTR mode producing the key stream.
+     *
+     * @see CTR
+     */
+    private final CTR counter;
+
+    /**
+     * The GCM mode computing the tag, or null in CTR mode.
+     *
+     * @see GCM
+     */
+    private final GCM gcm;
+
+    /**
+     * The GCM initialization vector, or null in CTR mode.
+     */
+    private final byte[] iv;
+
+    /**
+     * Whether the GCM stream is encrypted or decrypted.
+     */
+    private final boolean encrypt;
+
+    /**
+     * The GHASH of the cipher text, or null in CTR mode.
+     *
+     * @see GHASH
+     */
+    private final GHASH hash;
+
+    /**
+     * The executor processing the chunks, or null to process them in the calling thread.
+     */
+    private final Executor executor;
+
+    /**
+     * The maximum number of chunks requested or processed ahead of downstream.
+     */
+    private final int parallelism;
+
+    /**
+     * The chunks being processed, in stream order.
+     */
+    private final Queue<CompletableFuture<byte[]>> pending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The number of chunks requested by downstream and not yet emitted.
+     */
+    private final AtomicLong demand = new AtomicLong();
+
+    /**
+     * The number of chunks requested from upstream and not yet received.
+     */
+    private final AtomicLong requested = new AtomicLong();
+
+    /**
+     * The work-in-progress counter serializing the drain loop.
+     */
+    private final AtomicInteger work = new AtomicInteger();
+
+    /**
+     * The downstream subscriber.
+     */
+    private final AtomicReference<Flow.Subscriber<? super ByteBuffer>> downstream = new AtomicReference<>();
+
+    /**
+     * The upstream subscription.
+     */
+    private volatile Flow.Subscription upstream;
+
+    /**
+     * Whether upstream has completed or failed.
+     */
+    private volatile boolean upstreamDone;
+
+    /**
+     * Whether downstream has cancelled.
+     */
+    private volatile boolean cancelled;
+
+    /**
+     * The failure to signal downstream.
+     */
+    private volatile Throwable error;
+
+    /**
+     * Whether downstream has received a terminal signal. Only accessed by the drain loop.
+     */
+    private boolean terminated;
+
+    /**
+     * Whether the upstream subscription has been cancelled. Only accessed by the drain loop.
+     */
+    private boolean upstreamCancelled;
+
+    /**
+     * The stream offset of the next chunk. Only accessed by {@link #onNext(ByteBuffer)}.
+     */
+    private long offset;
+
+    /**
+     * The last bytes received in GCM decryption, which may be the tag.
+     */
+    private byte[] held = new byte[0];
+
+    /**
+     * Constructs a CTR processor running in the calling thread.
+     *
+     * @param counter The CTR mode producing the key stream.
+     * @see CTR
+     */
+    public CipherProcessor(CTR counter) {
+        this(counter, null, 1);
+    }
+
+    /**
+     * Constructs a CTR processor running on the given executor.
+     *
+     * @param counter     The CTR mode producing the key stream.
+     * @param executor    The executor processing the chunks, or null to use the calling thread.
+     * @param parallelism The maximum number of chunks processed ahead of downstream.
+     * @see CTR
+     */
+    public CipherProcessor(CTR counter, Executor executor, int parallelism) {
+        this(counter, null, null, null, true, executor, parallelism);
+    }
+
+    /**
+     * Constructs a GCM processor running in the calling thread.
+     *
+     * @param gcm     The GCM mode.
+     * @param iv      The initialization vector.
+     * @param aad     The additional authenticated data, may be null.
+     * @param encrypt Whether the stream is encrypted or decrypted.
+     * @see GCM
+     */
+    public CipherProcessor(GCM gcm, byte[] iv, byte[] aad, boolean encrypt) {
+        this(gcm, iv, aad, encrypt, null, 1);
+    }
+
+    /**
+     * Constructs a GCM processor running on the given executor.
+     *
+     * @param gcm         The GCM mode.
+     * @param iv          The initialization vector.
+     * @param aad         The additional authenticated data, may be null.
+     * @param encrypt     Whether the stream is encrypted or decrypted.
+     * @param executor    The executor processing the chunks, or null to use the calling thread.
+     * @param parallelism The maximum number of chunks processed ahead of downstream.
+     * @see GCM
+     */
+    public CipherProcessor(GCM gcm, byte[] iv, byte[] aad, boolean encrypt, Executor executor, int parallelism) {
+        this(gcm.counter(iv), gcm, iv, aad, encrypt, executor, parallelism);
+    }
+
+    /**
+     * Constructs a processor.
+     *
+     * @param counter     The CTR mode producing the key stream.
+     * @param gcm         The GCM mode, or null in CTR mode.
+     * @param iv          The initialization vector, or null in CTR mode.
+     * @param aad         The additional authenticated data, may be null.
+     * @param encrypt     Whether the stream is encrypted or decrypted.
+     * @param executor    The executor processing the chunks, or null to use the calling thread.
+     * @param parallelism The maximum number of chunks processed ahead of downstream.
+     */
+    private CipherProcessor(CTR counter, GCM gcm, byte[] iv, byte[] aad, boolean encrypt, Executor executor, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+
+        this.counter = counter;
+        this.gcm = gcm;
+        this.iv = iv == null ? null : iv.clone();
+        this.encrypt = encrypt;
+        this.hash = gcm == null ? null : gcm.hash();
+        this.executor = executor;
+        this.parallelism = parallelism;
+
+        if (aad != null) {
+            hash.updateAAD(aad, 0, aad.length);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        if (!downstream.compareAndSet(null, subscriber)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("CipherProcessor supports a single subscriber"));
+
+            return;
+        }
+
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    error = new IllegalArgumentException("Requested a non-positive number of chunks: " + n);
+                } else {
+                    demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+                }
+
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+                drain();
+            }
+        });
+
+        drain();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (upstream != null) {
+            subscription.cancel();
+
+            return;
+        }
+
+        upstream = subscription;
+        drain();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onNext(ByteBuffer item) {
+        requested.decrementAndGet();
+
+        byte[] input = new byte[item.remaining()];
+        item.get(input);
+
+        if (gcm != null && !encrypt) {
+            input = holdTag(input);
+            hash.update(input, 0, input.length);
+        }
+
+        if (input.length > 0) {
+            long position = offset;
+            byte[] chunk = input;
+            CompletableFuture<byte[]> result;
+
+            offset += chunk.length;
+
+            try {
+                result = executor == null
+                        ? CompletableFuture.completedFuture(process(position, chunk))
+                        : CompletableFuture.supplyAsync(() -> process(position, chunk), executor);
+            } catch (RuntimeException e) {
+                result = CompletableFuture.failedFuture(e);
+            }
+
+            pending.add(result);
+            result.whenComplete((output, failure) -> drain());
+        }
+
+        drain();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onError(Throwable throwable) {
+        error = throwable;
+        upstreamDone = true;
+        drain();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onComplete() {
+        upstreamDone = true;
+        drain();
+    }
+
+    /**
+     * Encrypts or decrypts a chunk in place.
+     *
+     * @param position The offset of the chunk in the stream.
+     * @param chunk    The chunk.
+     * @return The processed chunk.
+     */
+    private byte[] process(long position, byte[] chunk) {
+        counter.process(position, chunk, 0, chunk, 0, chunk.length);
+
+        return chunk;
+    }
+
+    /**
+     * Keeps the last {@value GCM#TAG_LENGTH} bytes received and returns the bytes before them.
+     *
+     * @param input The received bytes.
+     * @return The bytes known to be cipher text.
+     */
+    private byte[] holdTag(byte[] input) {
+        byte[] all = new byte[held.length + input.length];
+        System.arraycopy(held, 0, all, 0, held.length);
+        System.arraycopy(input, 0, all, held.length, input.length);
+
+        int length = Math.max(0, all.length - GCM.TAG_LENGTH);
+        byte[] data = new byte[length];
+        System.arraycopy(all, 0, data, 0, length);
+
+        held = new byte[all.length - length];
+        System.arraycopy(all, length, held, 0, held.length);
+
+        return data;
+    }
+
+    /**
+     * Emits the processed chunks and terminal signals, and requests more chunks from upstream.
+     * Calls are serialized, so that only one thread at a time signals downstream.
+     */
+    private void drain() {
+        if (work.getAndIncrement() != 0) {
+            return;
+        }
+
+        int missed = 1;
+
+        do {
+            Flow.Subscriber<? super ByteBuffer> subscriber = downstream.get();
+
+            if (!terminated && subscriber != null) {
+                if (cancelled) {
+                    terminated = true;
+                    pending.clear();
+                } else {
+                    emit(subscriber);
+                }
+            }
+
+            if (terminated && upstream != null && !upstreamCancelled && !upstreamDone) {
+                upstreamCancelled = true;
+                upstream.cancel();
+            }
+
+            missed = work.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * Emits the processed chunks in order, as far as downstream demand allows.
+     *
+     * @param subscriber The downstream subscriber.
+     */
+    private void emit(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        Throwable failure = error;
+
+        while (failure == null && demand.get() > 0) {
+            CompletableFuture<byte[]> head = pending.peek();
+
+            if (head == null || !head.isDone()) {
+                break;
+            }
+
+            pending.poll();
+
+            try {
+                byte[] output = head.join();
+
+                if (gcm != null && encrypt) {
+                    hash.update(output, 0, output.length);
+                }
+
+                demand.decrementAndGet();
+                subscriber.onNext(ByteBuffer.wrap(output));
+            } catch (CompletionException e) {
+                failure = e.getCause();
+            }
+        }
+
+        if (failure != null) {
+            terminated = true;
+            pending.clear();
+            subscriber.onError(failure);
+
+            return;
+        }
+
+        if (upstreamDone && pending.isEmpty()) {
+            complete(subscriber);
+
+            return;
+        }
+
+        Flow.Subscription subscription = upstream;
+
+        if (subscription != null && !upstreamDone) {
+            long wanted = Math.min(parallelism, demand.get()) - pending.size() - requested.get();
+
+            if (wanted > 0) {
+                requested.addAndGet(wanted);
+                subscription.request(wanted);
+            }
+        }
+    }
+
+    /**
+     * Signals the end of the stream, emitting or verifying the GCM tag first.
+     *
+     * @param subscriber The downstream subscriber.
+     */
+    private void complete(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        if (gcm == null) {
+            terminated = true;
+            subscriber.onComplete();
+        } else if (encrypt) {
+            if (demand.get() > 0) {
+                terminated = true;
+                demand.decrementAndGet();
+                subscriber.onNext(ByteBuffer.wrap(gcm.tag(iv, hash)));
+                subscriber.onComplete();
+            }
+        } else {
+            terminated = true;
+
+            try {
+                if (held.length < GCM.TAG_LENGTH) {
+                    throw new AEADBadTagException("Stream shorter than the tag");
+                }
+
+                GCM.verify(gcm.tag(iv, hash), held);
+                subscriber.onComplete();
+            } catch (AEADBadTagException e) {
+                subscriber.onError(e);
+            }
+        }
+    }
+
+}
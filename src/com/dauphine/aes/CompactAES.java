@@ -0,0 +1,435 @@
+package com.dauphine.aes;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Implementation of AES holding nothing but the master key, the round keys being expanded on the fly.
+ * This class provides methods for encryption (ciphering) and decryption (deciphering) of AES-128 and
+ * AES-256 blocks.
+ * </p>
+ *
+ * <p>
+ * An instance costs the {@value AES#BLOCK_SIZE} or {@code 2 *} {@value AES#BLOCK_SIZE} bytes of its key
+ * plus two object headers, instead of the {@link Key} and {@link Block} objects of {@link AES}, so that
+ * millions of keys can stay resident. Encryption expands the round keys one window at a time, as the
+ * rounds consume them. Decryption first runs the expansion forward to the last round key, then runs it
+ * backwards, so each block pays a full key expansion. Instances are thread safe.
+ * </p>
+ *
+ * @author Nelson PROIA {@literal <nelson.proia@dauphine.eu>}
+ * @see AES
+ * @see BlockCipher
+ * @see OffHeapAES
+ */
+public class CompactAES implements BlockCipher {
+
+    /**
+     * The round constants of the key expansion.
+     */
+    private final static int[] ROUND_CONSTANTS = {0x01, 0x02, 0x04, 0x08, 0x10, 0x20, 0x40, 0x80, 0x1B, 0x36};
+
+    /**
+     * The S-box for byte substitution during encryption.
+     *
+     * @see SBox
+     */
+    private static final SBox S_BOX = new SBox(AES.sBoxValues);
+
+    /**
+     * The inverse S-box for byte substitution during decryption.
+     *
+     * @see SBox
+     */
+    private static final SBox S_BOX_INVERT = new SBox(AES.sBoxInvertValues);
+
+    /**
+     * The master key, {@value AES#BLOCK_SIZE} or {@code 2 *} {@value AES#BLOCK_SIZE} bytes.
+     */
+    private final byte[] key;
+
+    /**
+     * Constructs a CompactAES instance with the given master key.
+     *
+     * @param key The {@value AES#BLOCK_SIZE} bytes of an AES-128 key or the {@code 2 *} {@value AES#BLOCK_SIZE}
+     *            bytes of an AES-256 key.
+     */
+    public CompactAES(byte[] key) {
+        if (key.length != AES.BLOCK_SIZE && key.length != 2 * AES.BLOCK_SIZE) {
+            throw new IllegalArgumentException("Key must be " + AES.BLOCK_SIZE + " or " + 2 * AES.BLOCK_SIZE + " bytes: " + key.length);
+        }
+
+        this.key = key.clone();
+    }
+
+    /**
+     * Ciphers the given plain text bytes.
+     *
+     * @param plain The {@value AES#BLOCK_SIZE} bytes of the plain block.
+     * @return The {@value AES#BLOCK_SIZE} bytes of the encrypted block.
+     */
+    @Override
+    public byte[] cipher(byte[] plain) {
+        int[] state = toState(plain);
+        int[] window = toState(key);
+        int rounds = rounds();
+        int expansions = 0;
+
+        addRoundKey(state, window, 0);
+
+        for (int round = 1; round <= rounds; ++round) {
+            int offset = round * AES.BLOCK_SIZE % window.length;
+
+            if (offset == 0) {
+                expand(window, expansions++);
+            }
+
+            substituteShift(state, S_BOX, 1);
+
+            if (round < rounds) {
+                mixColumns(state);
+            }
+
+            addRoundKey(state, window, offset);
+        }
+
+        Arrays.fill(window, 0);
+
+        return toBytes(state);
+    }
+
+    /**
+     * Deciphers the given cipher text bytes.
+     *
+     * @param cipher The {@value AES#BLOCK_SIZE} bytes of the cipher block.
+     * @return The {@value AES#BLOCK_SIZE} bytes of the decrypted block.
+     */
+    @Override
+    public byte[] decipher(byte[] cipher) {
+        int[] state = toState(cipher);
+        int[] window = toState(key);
+        int rounds = rounds();
+        int expansions = rounds * AES.BLOCK_SIZE / window.length;
+
+        for (int i = 0; i < expansions; ++i) {
+            expand(window, i);
+        }
+
+        for (int round = rounds; round > 0; --round) {
+            int offset = round * AES.BLOCK_SIZE % window.length;
+
+            addRoundKey(state, window, offset);
+
+            if (round < rounds) {
+                mixColumnsInvert(state);
+            }
+
+            substituteShift(state, S_BOX_INVERT, AES.NUMBER_BLOCKS - 1);
+
+            if (offset == 0) {
+                expandInvert(window, --expansions);
+            }
+        }
+
+        addRoundKey(state, window, 0);
+        Arrays.fill(window, 0);
+
+        return toBytes(state);
+    }
+
+    /**
+     * Ciphers the given plain text block.
+     *
+     * @param plain The Block representing the plain block.
+     * @return The encrypted Block.
+     * @see Block
+     */
+    public Block cipher(Block plain) {
+        return new Block(cipher(plain.toBytes()));
+    }
+
+    /**
+     * Deciphers the given cipher text block.
+     *
+     * @param cipher The Block representing the cipher text.
+     * @return The decrypted Block.
+     * @see Block
+     */
+    public Block decipher(Block cipher) {
+        return new Block(decipher(cipher.toBytes()));
+    }
+
+    /**
+     * Returns the number of rounds of the key size, 10 for AES-128 and 14 for AES-256.
+     *
+     * @return The number of rounds.
+     */
+    private int rounds() {
+        return key.length / AES.NUMBER_BLOCKS + 6;
+    }
+
+    /**
+     * Replaces a window of key words by the following one in the key expansion.
+     *
+     * @param window    The window, one key length of bytes.
+     * @param expansion The index of the window being replaced.
+     */
+    private static void expand(int[] window, int expansion) {
+        int words = window.length / AES.NUMBER_BLOCKS;
+
+        for (int word = 0; word < words; ++word) {
+            int previous = (word + words - 1) % words * AES.NUMBER_BLOCKS;
+
+            for (int i = 0; i < AES.NUMBER_BLOCKS; ++i) {
+                window[word * AES.NUMBER_BLOCKS + i] ^= temp(window, word, previous, i, expansion);
+            }
+        }
+    }
+
+    /**
+     * Replaces a window of key words by the preceding one in the key expansion.
+     *
+     * @param window    The window, one key length of bytes.
+     * @param expansion The index of the window to restore.
+     */
+    private static void expandInvert(int[] window, int expansion) {
+        int words = window.length / AES.NUMBER_BLOCKS;
+
+        for (int word = words - 1; word >= 0; --word) {
+            int previous = (word + words - 1) % words * AES.NUMBER_BLOCKS;
+
+            for (int i = 0; i < AES.NUMBER_BLOCKS; ++i) {
+                window[word * AES.NUMBER_BLOCKS + i] ^= temp(window, word, previous, i, expansion);
+            }
+        }
+    }
+
+    /**
+     * Computes one byte of the value XORed into a key word by the key expansion (FIPS-197, section 5.2).
+     *
+     * @param window    The window, whose previous word already holds the value it takes in the same window.
+     * @param word      The index of the word in the window.
+     * @param previous  The offset of the previous word in the window.
+     * @param i         The index of the byte in the word.
+     * @param expansion The index of the window being expanded.
+     * @return The byte to XOR.
+     */
+    private static int temp(int[] window, int word, int previous, int i, int expansion) {
+        if (word == 0) {
+            int value = S_BOX.cipher(window[previous + (i + 1) % AES.NUMBER_BLOCKS]);
+
+            return i == 0 ? value ^ ROUND_CONSTANTS[expansion] : value;
+        }
+
+        if (word == AES.NUMBER_BLOCKS && window.length > AES.BLOCK_SIZE) {
+            return S_BOX.cipher(window[previous + i]);
+        }
+
+        return window[previous + i];
+    }
+
+    /**
+     * XORs the state with the round key held at the given offset of the window.
+     *
+     * @param state  The state.
+     * @param window The window of key words.
+     * @param offset The offset of the round key in the window.
+     */
+    private static void addRoundKey(int[] state, int[] window, int offset) {
+        for (int i = 0; i < AES.BLOCK_SIZE; ++i) {
+            state[i] ^= window[offset + i];
+        }
+    }
+
+    /**
+     * Substitutes the bytes of the state and rotates each row {@code r} left by {@code r * step} columns.
+     * A step of 1 is ShiftRows, a step of 3 is InvShiftRows.
+     *
+     * @param state The state.
+     * @param sBox  The S-box to use for substitution.
+     * @param step  The rotation step.
+     */
+    private static void substituteShift(int[] state, SBox sBox, int step) {
+        int[] source = state.clone();
+
+        for (int column = 0; column < AES.NUMBER_BLOCKS; ++column) {
+            for (int row = 0; row < AES.NUMBER_BLOCKS; ++row) {
+                int index = row + AES.NUMBER_BLOCKS * ((column + row * step) % AES.NUMBER_BLOCKS);
+                state[row + AES.NUMBER_BLOCKS * column] = sBox.cipher(source[index]);
+            }
+        }
+    }
+
+    /**
+     * Multiplies each column of the state by the mix columns matrix.
+     *
+     * @param state The state.
+     */
+    private static void mixColumns(int[] state) {
+        for (int column = 0; column < AES.BLOCK_SIZE; column += AES.NUMBER_BLOCKS) {
+            int a0 = state[column], a1 = state[column + 1], a2 = state[column + 2], a3 = state[column + 3];
+
+            state[column] = OffHeapAES.multiply(a0, 2) ^ OffHeapAES.multiply(a1, 3) ^ a2 ^ a3;
+            state[column + 1] = a0 ^ OffHeapAES.multiply(a1, 2) ^ OffHeapAES.multiply(a2, 3) ^ a3;
+            state[column + 2] = a0 ^ a1 ^ OffHeapAES.multiply(a2, 2) ^ OffHeapAES.multiply(a3, 3);
+            state[column + 3] = OffHeapAES.multiply(a0, 3) ^ a1 ^ a2 ^ OffHeapAES.multiply(a3, 2);
+        }
+    }
+
+    /**
+     * Multiplies each column of the state by the inverse mix columns matrix.
+     *
+     * @param state The state.
+     */
+    private static void mixColumnsInvert(int[] state) {
+        for (int column = 0; column < AES.BLOCK_SIZE; column += AES.NUMBER_BLOCKS) {
+            int a0 = state[column], a1 = state[column + 1], a2 = state[column + 2], a3 = state[column + 3];
+
+            state[column] = OffHeapAES.multiply(a0, 14) ^ OffHeapAES.multiply(a1, 11) ^ OffHeapAES.multiply(a2, 13) ^ OffHeapAES.multiply(a3, 9);
+            state[column + 1] = OffHeapAES.multiply(a0, 9) ^ OffHeapAES.multiply(a1, 14) ^ OffHeapAES.multiply(a2, 11) ^ OffHeapAES.multiply(a3, 13);
+            state[column + 2] = OffHeapAES.multiply(a0, 13) ^ OffHeapAES.multiply(a1, 9) ^ OffHeapAES.multiply(a2, 14) ^ OffHeapAES.multiply(a3, 11);
+            state[column + 3] = OffHeapAES.multiply(a0, 11) ^ OffHeapAES.multiply(a1, 13) ^ OffHeapAES.multiply(a2, 9) ^ OffHeapAES.multiply(a3, 14);
+        }
+    }
+
+    /**
+     * Converts bytes into unsigned byte values.
+     *
+     * @param bytes The bytes.
+     * @return The unsigned values.
+     */
+    private static int[] toState(byte[] bytes) {
+        int[] state = new int[bytes.length];
+
+        for (int i = 0; i < bytes.length; ++i) {
+            state[i] = bytes[i] & 0xFF;
+        }
+
+        return state;
+    }
+
+    /**
+     * Converts unsigned byte values into bytes.
+     *
+     * @param state The unsigned values.
+     * @return The bytes.
+     */
+    private static byte[] toBytes(int[] state) {
+        byte[] bytes = new byte[state.length];
+
+        for (int i = 0; i < state.length; ++i) {
+            bytes[i] = (byte) state[i];
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Measures the heap used per key and the throughput of encrypting blocks under randomly chosen keys,
+     * for CompactAES and for the fully expanded schedules of {@link TableAES}, which share the same word-oriented
+     * round structure, so that the difference is the cost of expanding the key on the fly.
+     *
+     * @param args Command-line arguments: optional number of keys and number of blocks.
+     */
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int blocks = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+
+        SecureRandom random = new SecureRandom();
+        byte[][] keys = new byte[count][AES.BLOCK_SIZE];
+
+        for (byte[] key : keys) {
+            random.nextBytes(key);
+        }
+
+        BlockCipher[] compact = new BlockCipher[count];
+        long compactBytes = heapOf(() -> {
+            for (int i = 0; i < count; ++i) {
+                compact[i] = new CompactAES(keys[i]);
+            }
+        });
+
+        BlockCipher[] expanded = new BlockCipher[count];
+        long expandedBytes = heapOf(() -> {
+            for (int i = 0; i < count; ++i) {
+                expanded[i] = new TableAES(keys[i]);
+            }
+        });
+
+        for (int i = 0; i < count; ++i) {
+            if (!Arrays.equals(compact[i].cipher(keys[i]), expanded[i].cipher(keys[i]))) {
+                throw new IllegalStateException("CompactAES and TableAES disagree");
+            }
+        }
+
+        int[] choices = random.ints(blocks, 0, count).toArray();
+
+        byte[] warmUp = new byte[AES.BLOCK_SIZE];
+
+        for (int choice : choices) {
+            warmUp = expanded[choice].decipher(compact[choice].decipher(expanded[choice].cipher(compact[choice].cipher(warmUp))));
+        }
+
+        report("CompactAES", compact, compactBytes, choices);
+        report("TableAES", expanded, expandedBytes, choices);
+    }
+
+    /**
+     * Measures the heap retained by the objects an action allocates.
+     *
+     * @param action The allocating action.
+     * @return The number of bytes retained.
+     */
+    private static long heapOf(Runnable action) {
+        long before = usedHeap();
+        action.run();
+
+        return usedHeap() - before;
+    }
+
+    /**
+     * Returns the heap in use after a garbage collection.
+     *
+     * @return The number of bytes in use.
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+
+        for (int i = 0; i < 3; ++i) {
+            System.gc();
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Prints the heap used per key and the throughput of encrypting and decrypting blocks under randomly chosen keys.
+     *
+     * @param name    The name of the engine.
+     * @param ciphers The keyed engines.
+     * @param bytes   The heap retained by the engines.
+     * @param choices The index of the key of each block, drawn before timing.
+     */
+    private static void report(String name, BlockCipher[] ciphers, long bytes, int[] choices) {
+        int blocks = choices.length;
+        byte[] block = new byte[AES.BLOCK_SIZE];
+        long begin = System.nanoTime();
+
+        for (int choice : choices) {
+            block = ciphers[choice].cipher(block);
+        }
+
+        double cipherSeconds = (System.nanoTime() - begin) / 1e9;
+        begin = System.nanoTime();
+
+        for (int choice : choices) {
+            block = ciphers[choice].decipher(block);
+        }
+
+        double decipherSeconds = (System.nanoTime() - begin) / 1e9;
+        System.out.printf("%-16s : %8.1f bytes/key, cipher %10.1f blocks/s, decipher %10.1f blocks/s%n",
+                name, (double) bytes / ciphers.length, blocks / cipherSeconds, blocks / decipherSeconds);
+    }
+
+}
@@ -0,0 +1,149 @@
+package com.dauphine.aes;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * Layout of the seekable chunked encrypted container shared by {@link ContainerWriter} and {@link ContainerReader}.
+ * </p>
+ *
+ * <p>
+ * A container is made of:
+ * </p>
+ * <ul>
+ *     <li>a header of {@value #HEADER_SIZE} bytes: magic, version, three reserved bytes, chunk size
+ *     and the {@value GCM#IV_LENGTH}-byte base nonce;</li>
+ *     <li>the chunks: each plain text chunk of {@code chunkSize} bytes (the last one may be shorter)
+ *     encrypted on its own with GCM, followed by its tag. The nonce of chunk {@code i} is the base
+ *     nonce XOR {@code i} on its last eight bytes, and its additional data is the header followed by
+ *     {@code i};</li>
+ *     <li>the trailer index: for each chunk, its offset in the container and its plain text length,
+ *     then the plain text size and the number of chunks, authenticated by a GCM tag over the header
+ *     and the index, with the nonce of chunk {@code -1};</li>
+ *     <li>a footer of {@value #FOOTER_SIZE} bytes: the trailer length and a closing magic.</li>
+ * </ul>
+ *
+ * <p>
+ * Since the index is authenticated and every chunk is bound to the container and to its position,
+ * reordered, substituted or truncated chunks are detected.
+ * </p>
+ *
+ * @author Nelson PROIA {@literal <nelson.proia@dauphine.eu>}
+ * @see ContainerReader
+ * @see ContainerWriter
+ * @see GCM
+ */
+final class ContainerFormat {
+
+    /**
+     * The magic number opening a container ("AESC").
+     */
+    static final int MAGIC = 0x41455343;
+
+    /**
+     * The magic number closing a container ("AESI").
+     */
+    static final int FOOTER_MAGIC = 0x41455349;
+
+    /**
+     * The version of the format.
+     */
+    static final byte VERSION = 1;
+
+    /**
+     * The size in bytes of the header.
+     */
+    static final int HEADER_SIZE = 12 + GCM.IV_LENGTH;
+
+    /**
+     * The size in bytes of a trailer index entry: chunk offset and plain text length.
+     */
+    static final int ENTRY_SIZE = Long.BYTES + Integer.BYTES;
+
+    /**
+     * The size in bytes of the footer: trailer length and closing magic.
+     */
+    static final int FOOTER_SIZE = Long.BYTES + Integer.BYTES;
+
+    /**
+     * The chunk index whose nonce authenticates the trailer.
+     */
+    static final long TRAILER_INDEX = -1;
+
+    /**
+     * Prevents instantiation.
+     */
+    private ContainerFormat() {
+    }
+
+    /**
+     * Builds the header of a container.
+     *
+     * @param chunkSize The size in bytes of a plain text chunk.
+     * @param baseNonce The base nonce.
+     * @return The {@value #HEADER_SIZE} bytes of the header.
+     */
+    static byte[] header(int chunkSize, byte[] baseNonce) {
+        return ByteBuffer.allocate(HEADER_SIZE)
+                .putInt(MAGIC)
+                .put(VERSION)
+                .put(new byte[3])
+                .putInt(chunkSize)
+                .put(baseNonce)
+                .array();
+    }
+
+    /**
+     * Reads the chunk size of a header, checking its magic and version.
+     *
+     * @param header The {@value #HEADER_SIZE} bytes of the header.
+     * @return The size in bytes of a plain text chunk.
+     * @throws IOException If the header is not a valid container header.
+     */
+    static int chunkSize(byte[] header) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(header);
+
+        if (buffer.getInt() != MAGIC || buffer.get() != VERSION) {
+            throw new IOException("Not an encrypted container, or unsupported version");
+        }
+
+        int chunkSize = buffer.getInt(8);
+
+        if (chunkSize <= 0) {
+            throw new IOException("Invalid chunk size: " + chunkSize);
+        }
+
+        return chunkSize;
+    }
+
+    /**
+     * Derives the nonce of a chunk.
+     *
+     * @param header The header holding the base nonce.
+     * @param index  The index of the chunk.
+     * @return The {@value GCM#IV_LENGTH} bytes of the nonce.
+     */
+    static byte[] nonce(byte[] header, long index) {
+        byte[] nonce = new byte[GCM.IV_LENGTH];
+        System.arraycopy(header, HEADER_SIZE - GCM.IV_LENGTH, nonce, 0, GCM.IV_LENGTH);
+
+        for (int i = 0; i < Long.BYTES; ++i) {
+            nonce[GCM.IV_LENGTH - 1 - i] ^= (byte) (index >>> (8 * i));
+        }
+
+        return nonce;
+    }
+
+    /**
+     * Builds the additional authenticated data of a chunk.
+     *
+     * @param header The header of the container.
+     * @param index  The index of the chunk.
+     * @return The additional authenticated data.
+     */
+    static byte[] chunkData(byte[] header, long index) {
+        return ByteBuffer.allocate(HEADER_SIZE + Long.BYTES).put(header).putLong(index).array();
+    }
+
+}
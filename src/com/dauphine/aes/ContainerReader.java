@@ -0,0 +1,310 @@
+package com.dauphine.aes;
+
+import javax.crypto.AEADBadTagException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Reader of seekable chunked encrypted containers written by {@link ContainerWriter}.
+ * This class provides a read-only {@link SeekableByteChannel} over the plain text of a container.
+ * </p>
+ *
+ * <p>
+ * The trailer index is read and authenticated when the reader is opened. A read then only fetches,
+ * authenticates and decrypts the chunks it touches, so reading a range costs O(chunk) instead of
+ * O(file). The last decrypted chunk is kept for subsequent reads. An instance is not thread safe.
+ * </p>
+ *
+ * @author Nelson PROIA {@literal <nelson.proia@dauphine.eu>}
+ * @see ContainerFormat
+ * @see ContainerWriter
+ * @see GCM
+ */
+public class ContainerReader implements SeekableByteChannel {
+
+    /**
+     * The channel holding the container.
+     */
+    private final SeekableByteChannel input;
+
+    /**
+     * The GCM mode decrypting the chunks.
+     *
+     * @see GCM
+     */
+    private final GCM gcm;
+
+    /**
+     * The header of the container.
+     */
+    private final byte[] header;
+
+    /**
+     * The size in bytes of a plain text chunk.
+     */
+    private final int chunkSize;
+
+    /**
+     * The offset in the container of each chunk.
+     */
+    private final long[] chunkOffsets;
+
+    /**
+     * The plain text length of each chunk.
+     */
+    private final int[] chunkLengths;
+
+    /**
+     * The size in bytes of the plain text.
+     */
+    private final long size;
+
+    /**
+     * The current position in the plain text.
+     */
+    private long position;
+
+    /**
+     * The index of the decrypted chunk kept in {@link #plain}, or -1.
+     */
+    private long cachedIndex = -1;
+
+    /**
+     * The last decrypted chunk.
+     */
+    private byte[] plain;
+
+    /**
+     * Constructs a reader, reading and authenticating the header and trailer index.
+     *
+     * @param input  The channel holding the container.
+     * @param cipher The block cipher.
+     * @throws IOException If the container is malformed or its index is not authentic.
+     * @see BlockCipher
+     */
+    public ContainerReader(SeekableByteChannel input, BlockCipher cipher) throws IOException {
+        this.input = input;
+        this.gcm = new GCM(cipher);
+        this.header = readFully(0, ContainerFormat.HEADER_SIZE);
+        this.chunkSize = ContainerFormat.chunkSize(header);
+
+        long containerSize = input.size();
+        ByteBuffer footer = ByteBuffer.wrap(readFully(containerSize - ContainerFormat.FOOTER_SIZE, ContainerFormat.FOOTER_SIZE));
+        long trailerLength = footer.getLong();
+
+        if (footer.getInt() != ContainerFormat.FOOTER_MAGIC || trailerLength < 2 * Long.BYTES + GCM.TAG_LENGTH
+                || trailerLength > containerSize - ContainerFormat.HEADER_SIZE - ContainerFormat.FOOTER_SIZE
+                || (trailerLength - 2 * Long.BYTES - GCM.TAG_LENGTH) % ContainerFormat.ENTRY_SIZE != 0) {
+            throw new IOException("Truncated or corrupted container footer");
+        }
+
+        byte[] trailer = readFully(containerSize - ContainerFormat.FOOTER_SIZE - trailerLength, (int) trailerLength);
+        int bodyLength = trailer.length - GCM.TAG_LENGTH;
+        byte[] data = ByteBuffer.allocate(header.length + bodyLength).put(header).put(trailer, 0, bodyLength).array();
+
+        try {
+            byte[] tag = Arrays.copyOfRange(trailer, bodyLength, trailer.length);
+            gcm.decrypt(ContainerFormat.nonce(header, ContainerFormat.TRAILER_INDEX), data, tag);
+        } catch (AEADBadTagException e) {
+            throw new IOException("Container index is not authentic", e);
+        }
+
+        ByteBuffer body = ByteBuffer.wrap(trailer, 0, bodyLength);
+        int count = (bodyLength - 2 * Long.BYTES) / ContainerFormat.ENTRY_SIZE;
+
+        chunkOffsets = new long[count];
+        chunkLengths = new int[count];
+
+        for (int i = 0; i < count; ++i) {
+            chunkOffsets[i] = body.getLong();
+            chunkLengths[i] = body.getInt();
+        }
+
+        size = body.getLong();
+
+        if (body.getLong() != count) {
+            throw new IOException("Container index is inconsistent");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(ByteBuffer destination) throws IOException {
+        ensureOpen();
+
+        if (position >= size) {
+            return -1;
+        }
+
+        int read = 0;
+
+        while (destination.hasRemaining() && position < size) {
+            long chunkIndex = position / chunkSize;
+            byte[] chunk = chunk(chunkIndex);
+            int start = (int) (position - chunkIndex * chunkSize);
+            int count = Math.min(destination.remaining(), chunk.length - start);
+
+            if (count <= 0) {
+                throw new IOException("Chunk " + chunkIndex + " is shorter than the chunk size");
+            }
+
+            destination.put(chunk, start, count);
+            position += count;
+            read += count;
+        }
+
+        return read;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NonWritableChannelException Always, the channel being read-only.
+     */
+    @Override
+    public int write(ByteBuffer source) {
+        throw new NonWritableChannelException();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long position() throws IOException {
+        ensureOpen();
+
+        return position;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position: " + newPosition);
+        }
+
+        position = newPosition;
+
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return The size of the plain text.
+     */
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+
+        return size;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NonWritableChannelException Always, the channel being read-only.
+     */
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isOpen() {
+        return input.isOpen();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Closes the underlying channel.
+     */
+    @Override
+    public void close() throws IOException {
+        plain = null;
+        cachedIndex = -1;
+        input.close();
+    }
+
+    /**
+     * Returns the plain text of a chunk, fetching, authenticating and decrypting it if needed.
+     *
+     * @param index The index of the chunk.
+     * @return The plain text of the chunk.
+     * @throws IOException If the chunk cannot be read or is not authentic.
+     */
+    private byte[] chunk(long index) throws IOException {
+        if (index == cachedIndex) {
+            return plain;
+        }
+
+        if (index >= chunkOffsets.length) {
+            throw new IOException("Container index does not cover position " + position);
+        }
+
+        int i = (int) index;
+        byte[] encrypted = readFully(chunkOffsets[i], chunkLengths[i] + GCM.TAG_LENGTH);
+
+        try {
+            plain = gcm.decrypt(ContainerFormat.nonce(header, index), ContainerFormat.chunkData(header, index), encrypted);
+        } catch (AEADBadTagException e) {
+            throw new IOException("Chunk " + index + " is not authentic", e);
+        }
+
+        cachedIndex = index;
+
+        return plain;
+    }
+
+    /**
+     * Reads bytes at the given offset of the container.
+     *
+     * @param offset The offset of the first byte.
+     * @param length The number of bytes.
+     * @return The bytes read.
+     * @throws IOException If the container ends before.
+     */
+    private byte[] readFully(long offset, int length) throws IOException {
+        if (offset < 0) {
+            throw new IOException("Truncated container");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        input.position(offset);
+
+        while (buffer.hasRemaining()) {
+            if (input.read(buffer) < 0) {
+                throw new IOException("Truncated container");
+            }
+        }
+
+        return buffer.array();
+    }
+
+    /**
+     * Throws if the channel is closed.
+     *
+     * @throws ClosedChannelException If the channel is closed.
+     */
+    private void ensureOpen() throws ClosedChannelException {
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+    }
+
+}
@@ -0,0 +1,289 @@
+package com.dauphine.aes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * <p>
+ * Writer of seekable chunked encrypted containers.
+ * This class provides a {@link WritableByteChannel} encrypting the plain text written to it into a
+ * container that {@link ContainerReader} can read at random positions.
+ * </p>
+ *
+ * <p>
+ * Each full chunk is encrypted on the executor as soon as it is complete, with at most
+ * {@code parallelism} chunks in flight, and the encrypted chunks are written in order.
+ * The trailer index is written by {@link #close()}, which also closes the output channel.
+ * An instance is not thread safe.
+ * </p>
+ *
+ * @author Nelson PROIA {@literal <nelson.proia@dauphine.eu>}
+ * @see ContainerFormat
+ * @see ContainerReader
+ * @see GCM
+ */
+public class ContainerWriter implements WritableByteChannel {
+
+    /**
+     * The default size in bytes of a plain text chunk.
+     */
+    public final static int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * The source of the base nonces.
+     */
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * The channel receiving the container.
+     */
+    private final WritableByteChannel output;
+
+    /**
+     * The GCM mode encrypting the chunks.
+     *
+     * @see GCM
+     */
+    private final GCM gcm;
+
+    /**
+     * The header of the container.
+     */
+    private final byte[] header;
+
+    /**
+     * The executor encrypting the chunks.
+     */
+    private final Executor executor;
+
+    /**
+     * The maximum number of chunks being encrypted at the same time.
+     */
+    private final int parallelism;
+
+    /**
+     * The chunks being encrypted, in order.
+     */
+    private final Queue<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+
+    /**
+     * The trailer index entries written so far.
+     */
+    private final ByteArrayOutputStream index = new ByteArrayOutputStream();
+
+    /**
+     * The plain text of the current chunk.
+     */
+    private byte[] chunk;
+
+    /**
+     * The number of bytes of the current chunk.
+     */
+    private int buffered;
+
+    /**
+     * The number of chunks submitted.
+     */
+    private long chunkCount;
+
+    /**
+     * The number of plain text bytes written.
+     */
+    private long plainSize;
+
+    /**
+     * The offset in the container of the next encrypted chunk.
+     */
+    private long offset;
+
+    /**
+     * Whether the writer has been closed.
+     */
+    private boolean closed;
+
+    /**
+     * Constructs a writer with the default chunk size, encrypting on the common pool.
+     *
+     * @param output The channel receiving the container.
+     * @param cipher The block cipher.
+     * @throws IOException If the header cannot be written.
+     * @see BlockCipher
+     */
+    public ContainerWriter(WritableByteChannel output, BlockCipher cipher) throws IOException {
+        this(output, cipher, DEFAULT_CHUNK_SIZE, ForkJoinPool.commonPool(), Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs a writer.
+     *
+     * @param output      The channel receiving the container.
+     * @param cipher      The block cipher.
+     * @param chunkSize   The size in bytes of a plain text chunk.
+     * @param executor    The executor encrypting the chunks.
+     * @param parallelism The maximum number of chunks being encrypted at the same time.
+     * @throws IOException If the header cannot be written.
+     * @see BlockCipher
+     */
+    public ContainerWriter(WritableByteChannel output, BlockCipher cipher, int chunkSize, Executor executor, int parallelism) throws IOException {
+        if (chunkSize < 1 || parallelism < 1) {
+            throw new IllegalArgumentException("Chunk size and parallelism must be positive");
+        }
+
+        byte[] baseNonce = new byte[GCM.IV_LENGTH];
+        RANDOM.nextBytes(baseNonce);
+
+        this.output = output;
+        this.gcm = new GCM(cipher);
+        this.header = ContainerFormat.header(chunkSize, baseNonce);
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.chunk = new byte[chunkSize];
+
+        writeFully(header);
+        offset = header.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int write(ByteBuffer source) throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+
+        int written = source.remaining();
+
+        while (source.hasRemaining()) {
+            int count = Math.min(source.remaining(), chunk.length - buffered);
+            source.get(chunk, buffered, count);
+            buffered += count;
+
+            if (buffered == chunk.length) {
+                submit();
+            }
+        }
+
+        plainSize += written;
+
+        return written;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Encrypts the last chunk, writes the trailer index and footer, then closes the output channel.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        try {
+            if (buffered > 0) {
+                submit();
+            }
+
+            while (!pending.isEmpty()) {
+                writeHead();
+            }
+
+            ByteBuffer trailer = ByteBuffer.allocate(index.size() + 2 * Long.BYTES);
+            trailer.put(index.toByteArray()).putLong(plainSize).putLong(chunkCount);
+
+            byte[] body = trailer.array();
+            byte[] data = ByteBuffer.allocate(header.length + body.length).put(header).put(body).array();
+            byte[] tag = gcm.encrypt(ContainerFormat.nonce(header, ContainerFormat.TRAILER_INDEX), data, new byte[0]);
+
+            writeFully(body);
+            writeFully(tag);
+            writeFully(ByteBuffer.allocate(ContainerFormat.FOOTER_SIZE)
+                    .putLong(body.length + tag.length)
+                    .putInt(ContainerFormat.FOOTER_MAGIC)
+                    .array());
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Submits the current chunk for encryption, writing the oldest chunks first if too many are in flight.
+     *
+     * @throws IOException If an encrypted chunk cannot be written.
+     */
+    private void submit() throws IOException {
+        while (pending.size() >= parallelism) {
+            writeHead();
+        }
+
+        long chunkIndex = chunkCount++;
+        byte[] plain = buffered == chunk.length ? chunk : Arrays.copyOf(chunk, buffered);
+
+        pending.add(CompletableFuture.supplyAsync(() -> gcm.encrypt(ContainerFormat.nonce(header, chunkIndex),
+                ContainerFormat.chunkData(header, chunkIndex), plain), executor));
+
+        chunk = new byte[chunk.length];
+        buffered = 0;
+    }
+
+    /**
+     * Waits for the oldest chunk in flight and writes it, recording its index entry.
+     *
+     * @throws IOException If the chunk cannot be written or its encryption failed.
+     */
+    private void writeHead() throws IOException {
+        byte[] encrypted;
+
+        try {
+            encrypted = pending.remove().join();
+        } catch (CompletionException e) {
+            throw new IOException("Chunk encryption failed", e.getCause());
+        }
+
+        byte[] entry = ByteBuffer.allocate(ContainerFormat.ENTRY_SIZE)
+                .putLong(offset)
+                .putInt(encrypted.length - GCM.TAG_LENGTH)
+                .array();
+
+        index.write(entry, 0, entry.length);
+        writeFully(encrypted);
+        offset += encrypted.length;
+    }
+
+    /**
+     * Writes all the given bytes to the output channel.
+     *
+     * @param bytes The bytes to write.
+     * @throws IOException If an I/O error occurs.
+     */
+    private void writeFully(byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+        while (buffer.hasRemaining()) {
+            output.write(buffer);
+        }
+    }
+
+}
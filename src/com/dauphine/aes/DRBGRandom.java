@@ -0,0 +1,311 @@
+package com.dauphine.aes;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.random.RandomGenerator;
+
+/**
+ * <p>
+ * Random generator backed by one {@link CTRDRBG} per thread.
+ * This class provides the {@link RandomGenerator} methods without any contention between threads.
+ * </p>
+ *
+ * <p>
+ * Each thread lazily instantiates its own DRBG from the entropy source and generates the keystream
+ * in batches of {@code bufferSize} bytes, which are then handed out by {@link #nextBytes(byte[])}
+ * and {@link #nextLong()}. The DRBG is reseeded from the entropy source every {@code reseedInterval}
+ * batches.
+ * </p>
+ *
+ * @author Nelson PROIA {@literal <nelson.proia@dauphine.eu>}
+ * @see AES
+ * @see CTRDRBG
+ */
+public class DRBGRandom implements RandomGenerator {
+
+    /**
+     * The default size in bytes of the per-thread keystream buffer.
+     */
+    public final static int DEFAULT_BUFFER_SIZE = 4096;
+
+    /**
+     * The default number of batches generated between two reseeds.
+     */
+    public final static long DEFAULT_RESEED_INTERVAL = 1L << 16;
+
+    /**
+     * The source of entropy used to instantiate and reseed the per-thread DRBGs.
+     */
+    private final SecureRandom entropySource;
+
+    /**
+     * The size in bytes of the per-thread keystream buffer.
+     */
+    private final int bufferSize;
+
+    /**
+     * The number of batches generated between two reseeds.
+     */
+    private final long reseedInterval;
+
+    /**
+     * The factory building the key schedules of the per-thread DRBGs.
+     */
+    private final Function<byte[], BlockCipher> engines;
+
+    /**
+     * The per-thread DRBG and keystream buffer.
+     */
+    private final ThreadLocal<Stream> streams;
+
+    /**
+     * Constructs a DRBGRandom with the default buffer size and reseed interval.
+     */
+    public DRBGRandom() {
+        this(new SecureRandom(), DEFAULT_BUFFER_SIZE, DEFAULT_RESEED_INTERVAL);
+    }
+
+    /**
+     * Constructs a DRBGRandom.
+     *
+     * @param entropySource  The source of entropy for instantiation and reseeding.
+     * @param bufferSize     The size in bytes of the per-thread keystream buffer.
+     * @param reseedInterval The number of batches generated between two reseeds.
+     */
+    public DRBGRandom(SecureRandom entropySource, int bufferSize, long reseedInterval) {
+        this(entropySource, bufferSize, reseedInterval, CTRDRBG.DEFAULT_ENGINE);
+    }
+
+    /**
+     * Constructs a DRBGRandom on the given engines.
+     *
+     * @param entropySource  The source of entropy for instantiation and reseeding.
+     * @param bufferSize     The size in bytes of the per-thread keystream buffer.
+     * @param reseedInterval The number of batches generated between two reseeds.
+     * @param engines        The factory building the key schedules of the per-thread DRBGs.
+     */
+    public DRBGRandom(SecureRandom entropySource, int bufferSize, long reseedInterval, Function<byte[], BlockCipher> engines) {
+        if (bufferSize < Long.BYTES || bufferSize > CTRDRBG.MAX_REQUEST_LENGTH) {
+            throw new IllegalArgumentException("Buffer size must be in [8, " + CTRDRBG.MAX_REQUEST_LENGTH + "]: " + bufferSize);
+        }
+
+        if (reseedInterval < 1 || reseedInterval > CTRDRBG.MAX_RESEED_INTERVAL) {
+            throw new IllegalArgumentException("Reseed interval must be in [1, 2^48]: " + reseedInterval);
+        }
+
+        this.entropySource = entropySource;
+        this.bufferSize = bufferSize;
+        this.reseedInterval = reseedInterval;
+        this.engines = engines;
+        this.streams = ThreadLocal.withInitial(Stream::new);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void nextBytes(byte[] bytes) {
+        streams.get().read(bytes, 0, bytes.length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long nextLong() {
+        return streams.get().readLong();
+    }
+
+    /**
+     * Returns the entropy input for a new seed.
+     *
+     * @return The {@value CTRDRBG#SEED_LENGTH} bytes of entropy input.
+     */
+    private byte[] entropy() {
+        return entropySource.generateSeed(CTRDRBG.SEED_LENGTH);
+    }
+
+    /**
+     * Returns the personalization string of the current thread.
+     *
+     * @return The personalization string.
+     */
+    private static byte[] personalization() {
+        long id = Thread.currentThread().threadId();
+        long time = System.nanoTime();
+        byte[] personalization = new byte[2 * Long.BYTES];
+
+        for (int i = 0; i < Long.BYTES; ++i) {
+            personalization[i] = (byte) (id >>> (8 * i));
+            personalization[Long.BYTES + i] = (byte) (time >>> (8 * i));
+        }
+
+        return personalization;
+    }
+
+    /**
+     * The DRBG and keystream buffer owned by a single thread.
+     */
+    private final class Stream {
+
+        /**
+         * The DRBG of the thread.
+         */
+        private final CTRDRBG drbg = new CTRDRBG(entropy(), personalization(), reseedInterval, engines);
+
+        /**
+         * The buffered keystream.
+         */
+        private final byte[] buffer = new byte[bufferSize];
+
+        /**
+         * The position of the next unread byte in the buffer.
+         */
+        private int position = bufferSize;
+
+        /**
+         * Copies keystream bytes into the given array.
+         *
+         * @param bytes  The array receiving the bytes.
+         * @param offset The offset of the first byte to write.
+         * @param length The number of bytes to write.
+         */
+        void read(byte[] bytes, int offset, int length) {
+            while (length > 0) {
+                if (position == bufferSize) {
+                    refill();
+                }
+
+                int count = Math.min(length, bufferSize - position);
+                System.arraycopy(buffer, position, bytes, offset, count);
+                Arrays.fill(buffer, position, position + count, (byte) 0);
+
+                position += count;
+                offset += count;
+                length -= count;
+            }
+        }
+
+        /**
+         * Reads eight keystream bytes as a long.
+         *
+         * @return The long value.
+         */
+        long readLong() {
+            if (bufferSize - position < Long.BYTES) {
+                byte[] bytes = new byte[Long.BYTES];
+                read(bytes, 0, Long.BYTES);
+
+                return toLong(bytes, 0);
+            }
+
+            long value = toLong(buffer, position);
+            Arrays.fill(buffer, position, position + Long.BYTES, (byte) 0);
+            position += Long.BYTES;
+
+            return value;
+        }
+
+        /**
+         * Generates the next batch of keystream, reseeding first if needed.
+         */
+        private void refill() {
+            if (drbg.needsReseed()) {
+                drbg.reseed(entropy(), null);
+            }
+
+            drbg.generate(buffer, 0, bufferSize, null);
+            position = 0;
+        }
+
+    }
+
+    /**
+     * Reads eight bytes as a big-endian long.
+     *
+     * @param bytes  The array to read from.
+     * @param offset The offset of the first byte.
+     * @return The long value.
+     */
+    private static long toLong(byte[] bytes, int offset) {
+        long value = 0;
+
+        for (int i = 0; i < Long.BYTES; ++i) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+
+        return value;
+    }
+
+    /**
+     * Measures the throughput of the given generator shared by contending threads.
+     *
+     * @param name      The name of the generator.
+     * @param generator The generator to measure.
+     * @param threads   The number of threads.
+     * @param millis    The duration of the measure in milliseconds.
+     * @throws InterruptedException If interrupted while waiting for the threads.
+     */
+    private static void benchmark(String name, RandomGenerator generator, int threads, long millis) throws InterruptedException {
+        LongAdder bytes = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        long[] deadline = new long[1];
+
+        for (int i = 0; i < threads; ++i) {
+            workers[i] = new Thread(() -> {
+                byte[] token = new byte[32];
+
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                while (System.nanoTime() < deadline[0]) {
+                    generator.nextBytes(token);
+                    generator.nextLong();
+                    bytes.add(token.length + Long.BYTES);
+                }
+            });
+            workers[i].start();
+        }
+
+        long begin = System.nanoTime();
+        deadline[0] = begin + millis * 1_000_000L;
+        start.countDown();
+
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        System.out.printf("%-24s %4d threads : %10.2f MB/s%n", name, threads, bytes.sum() / seconds / 1e6);
+    }
+
+    /**
+     * Benchmarks DRBGRandom against SecureRandom (DRBG and NativePRNG) with 64 contending threads.
+     *
+     * @param args Command-line arguments: optional number of threads and duration in milliseconds.
+     * @throws Exception If a generator is not available or a thread is interrupted.
+     */
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        long millis = args.length > 1 ? Long.parseLong(args[1]) : 5000;
+
+        benchmark("DRBGRandom", new DRBGRandom(), threads, millis);
+
+        for (String algorithm : new String[]{"DRBG", "NativePRNG"}) {
+            try {
+                benchmark("SecureRandom " + algorithm, SecureRandom.getInstance(algorithm), threads, millis);
+            } catch (NoSuchAlgorithmException e) {
+                System.out.println("SecureRandom " + algorithm + " not available");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,194 @@
+package com.dauphine.aes;
+
+import javax.crypto.AEADBadTagException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Implementation of the Galois/Counter Mode (GCM) of authenticated encryption (NIST SP 800-38D).
+ * This class provides one-shot methods for encryption and decryption, as well as the building
+ * blocks ({@link CTR} key stream, {@link GHASH} and tag computation) for streaming callers.
+ * </p>
+ *
+ * <p>
+ * Tags are always {@value #TAG_LENGTH} bytes long. Any initialization vector length is accepted,
+ * {@value #IV_LENGTH} bytes being the recommended one.
+ * </p>
+ *
+ * @author Nelson PROIA {@literal <nelson.proia@dauphine.eu>}
+ * @see AES
+ * @see BlockCipher
+ * @see CTR
+ * @see GHASH
+ */
+public class GCM {
+
+    /**
+     * The length in bytes of the authentication tag.
+     */
+    public final static int TAG_LENGTH = 16;
+
+    /**
+     * The recommended length in bytes of the initialization vector.
+     */
+    public final static int IV_LENGTH = 12;
+
+    /**
+     * The number of rightmost bytes of the counter block incremented by GCM.
+     */
+    private final static int COUNTER_SIZE = 4;
+
+    /**
+     * The block cipher.
+     *
+     * @see BlockCipher
+     */
+    private final BlockCipher cipher;
+
+    /**
+     * The hash subkey H, the encryption of the zero block.
+     */
+    private final byte[] hashKey;
+
+    /**
+     * Constructs a GCM mode on top of the given block cipher.
+     *
+     * @param cipher The block cipher.
+     * @see BlockCipher
+     */
+    public GCM(BlockCipher cipher) {
+        this.cipher = cipher;
+        this.hashKey = cipher.cipher(new byte[AES.BLOCK_SIZE]);
+    }
+
+    /**
+     * Returns a new GHASH keyed with the hash subkey.
+     *
+     * @return The GHASH instance.
+     * @see GHASH
+     */
+    public GHASH hash() {
+        return new GHASH(hashKey);
+    }
+
+    /**
+     * Returns the CTR mode encrypting the data for the given initialization vector.
+     *
+     * @param iv The initialization vector.
+     * @return The CTR mode, starting at the counter block following the pre-counter block.
+     * @see CTR
+     */
+    public CTR counter(byte[] iv) {
+        byte[] initialCounter = new CTR(cipher, preCounter(iv), COUNTER_SIZE).counterAt(1);
+
+        return new CTR(cipher, initialCounter, COUNTER_SIZE);
+    }
+
+    /**
+     * Computes the authentication tag from the GHASH of the additional data and the cipher text.
+     *
+     * @param iv   The initialization vector.
+     * @param hash The GHASH of the additional data and the cipher text.
+     * @return The {@value #TAG_LENGTH} bytes of the tag.
+     * @see GHASH
+     */
+    public byte[] tag(byte[] iv, GHASH hash) {
+        byte[] tag = cipher.cipher(preCounter(iv));
+        byte[] digest = hash.finish();
+
+        for (int i = 0; i < TAG_LENGTH; ++i) {
+            tag[i] ^= digest[i];
+        }
+
+        return tag;
+    }
+
+    /**
+     * Encrypts and authenticates the given plain text.
+     *
+     * @param iv    The initialization vector.
+     * @param aad   The additional authenticated data, may be null.
+     * @param plain The plain text.
+     * @return The cipher text followed by the {@value #TAG_LENGTH} bytes of the tag.
+     */
+    public byte[] encrypt(byte[] iv, byte[] aad, byte[] plain) {
+        byte[] output = new byte[plain.length + TAG_LENGTH];
+        counter(iv).process(0, plain, 0, output, 0, plain.length);
+
+        GHASH hash = hash();
+
+        if (aad != null) {
+            hash.updateAAD(aad, 0, aad.length);
+        }
+
+        hash.update(output, 0, plain.length);
+        System.arraycopy(tag(iv, hash), 0, output, plain.length, TAG_LENGTH);
+
+        return output;
+    }
+
+    /**
+     * Verifies and decrypts the given cipher text.
+     *
+     * @param iv    The initialization vector.
+     * @param aad   The additional authenticated data, may be null.
+     * @param input The cipher text followed by the {@value #TAG_LENGTH} bytes of the tag.
+     * @return The plain text.
+     * @throws AEADBadTagException If the tag does not match.
+     */
+    public byte[] decrypt(byte[] iv, byte[] aad, byte[] input) throws AEADBadTagException {
+        if (input.length < TAG_LENGTH) {
+            throw new AEADBadTagException("Input shorter than the tag");
+        }
+
+        int length = input.length - TAG_LENGTH;
+        GHASH hash = hash();
+
+        if (aad != null) {
+            hash.updateAAD(aad, 0, aad.length);
+        }
+
+        hash.update(input, 0, length);
+        verify(tag(iv, hash), Arrays.copyOfRange(input, length, input.length));
+
+        byte[] plain = new byte[length];
+        counter(iv).process(0, input, 0, plain, 0, length);
+
+        return plain;
+    }
+
+    /**
+     * Compares an expected tag with a received one in constant time.
+     *
+     * @param expected The expected tag.
+     * @param received The received tag.
+     * @throws AEADBadTagException If the tags differ.
+     */
+    public static void verify(byte[] expected, byte[] received) throws AEADBadTagException {
+        if (!MessageDigest.isEqual(expected, received)) {
+            throw new AEADBadTagException("Tag mismatch");
+        }
+    }
+
+    /**
+     * Computes the pre-counter block J0 of the given initialization vector.
+     *
+     * @param iv The initialization vector.
+     * @return The pre-counter block.
+     */
+    private byte[] preCounter(byte[] iv) {
+        if (iv.length == IV_LENGTH) {
+            byte[] counter = Arrays.copyOf(iv, AES.BLOCK_SIZE);
+            counter[AES.BLOCK_SIZE - 1] = 1;
+
+            return counter;
+        }
+
+        GHASH hash = hash();
+        hash.update(iv, 0, iv.length);
+
+        return hash.finish();
+    }
+
+}
@@ -0,0 +1,214 @@
+package com.dauphine.aes;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Implementation of the GHASH universal hash function of GCM (NIST SP 800-38D).
+ * This class provides methods for hashing the additional authenticated data and the cipher text
+ * incrementally, in chunks of any size.
+ * </p>
+ *
+ * <p>
+ * All the additional authenticated data must be given before the cipher text. Multiplications in
+ * GF(2^128) do not branch on secret values. An instance is not thread safe.
+ * </p>
+ *
+ * @author Nelson PROIA {@literal <nelson.proia@dauphine.eu>}
+ * @see GCM
+ */
+public class GHASH {
+
+    /**
+     * The reduction constant of GF(2^128), in the GCM bit order.
+     */
+    private final static long REDUCTION = 0xE100000000000000L;
+
+    /**
+     * The high half of the hash subkey H.
+     */
+    private final long hHigh;
+
+    /**
+     * The low half of the hash subkey H.
+     */
+    private final long hLow;
+
+    /**
+     * The high half of the current hash value.
+     */
+    private long yHigh;
+
+    /**
+     * The low half of the current hash value.
+     */
+    private long yLow;
+
+    /**
+     * The bytes of the current incomplete block.
+     */
+    private final byte[] buffer = new byte[AES.BLOCK_SIZE];
+
+    /**
+     * The number of bytes of the current incomplete block.
+     */
+    private int buffered;
+
+    /**
+     * The number of bytes of additional authenticated data.
+     */
+    private long aadLength;
+
+    /**
+     * The number of bytes of cipher text.
+     */
+    private long dataLength;
+
+    /**
+     * Constructs a GHASH with the given hash subkey.
+     *
+     * @param h The {@value AES#BLOCK_SIZE} bytes of the hash subkey H.
+     */
+    public GHASH(byte[] h) {
+        hHigh = toLong(h, 0);
+        hLow = toLong(h, Long.BYTES);
+    }
+
+    /**
+     * Hashes additional authenticated data.
+     *
+     * @param input  The input array.
+     * @param offset The offset of the first byte.
+     * @param length The number of bytes.
+     * @throws IllegalStateException If cipher text has already been hashed.
+     */
+    public void updateAAD(byte[] input, int offset, int length) {
+        if (dataLength > 0) {
+            throw new IllegalStateException("Additional authenticated data must precede the cipher text");
+        }
+
+        absorb(input, offset, length);
+        aadLength += length;
+    }
+
+    /**
+     * Hashes cipher text.
+     *
+     * @param input  The input array.
+     * @param offset The offset of the first byte.
+     * @param length The number of bytes.
+     */
+    public void update(byte[] input, int offset, int length) {
+        if (dataLength == 0) {
+            flush();
+        }
+
+        absorb(input, offset, length);
+        dataLength += length;
+    }
+
+    /**
+     * Hashes the lengths block and returns the hash value.
+     * The instance must not be used afterwards.
+     *
+     * @return The {@value AES#BLOCK_SIZE} bytes of the hash value.
+     */
+    public byte[] finish() {
+        flush();
+        multiplyAdd(aadLength * 8, dataLength * 8);
+
+        byte[] result = new byte[AES.BLOCK_SIZE];
+
+        for (int i = 0; i < Long.BYTES; ++i) {
+            result[i] = (byte) (yHigh >>> (56 - 8 * i));
+            result[Long.BYTES + i] = (byte) (yLow >>> (56 - 8 * i));
+        }
+
+        return result;
+    }
+
+    /**
+     * Hashes bytes, buffering the last incomplete block.
+     *
+     * @param input  The input array.
+     * @param offset The offset of the first byte.
+     * @param length The number of bytes.
+     */
+    private void absorb(byte[] input, int offset, int length) {
+        while (length > 0) {
+            if (buffered == 0 && length >= AES.BLOCK_SIZE) {
+                multiplyAdd(toLong(input, offset), toLong(input, offset + Long.BYTES));
+                offset += AES.BLOCK_SIZE;
+                length -= AES.BLOCK_SIZE;
+                continue;
+            }
+
+            int count = Math.min(length, AES.BLOCK_SIZE - buffered);
+            System.arraycopy(input, offset, buffer, buffered, count);
+            buffered += count;
+            offset += count;
+            length -= count;
+
+            if (buffered == AES.BLOCK_SIZE) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Hashes the current incomplete block, padded with zeros.
+     */
+    private void flush() {
+        if (buffered == 0) {
+            return;
+        }
+
+        Arrays.fill(buffer, buffered, AES.BLOCK_SIZE, (byte) 0);
+        multiplyAdd(toLong(buffer, 0), toLong(buffer, Long.BYTES));
+        buffered = 0;
+    }
+
+    /**
+     * Computes {@code Y = (Y xor X) * H} in GF(2^128).
+     *
+     * @param xHigh The high half of the block X.
+     * @param xLow  The low half of the block X.
+     */
+    private void multiplyAdd(long xHigh, long xLow) {
+        long aHigh = yHigh ^ xHigh, aLow = yLow ^ xLow;
+        long vHigh = hHigh, vLow = hLow;
+        long zHigh = 0, zLow = 0;
+
+        for (int i = 0; i < 128; ++i) {
+            long bit = i < 64 ? aHigh >>> (63 - i) : aLow >>> (127 - i);
+            long mask = -(bit & 1);
+            zHigh ^= vHigh & mask;
+            zLow ^= vLow & mask;
+
+            long reduce = -(vLow & 1) & REDUCTION;
+            vLow = (vLow >>> 1) | (vHigh << 63);
+            vHigh = (vHigh >>> 1) ^ reduce;
+        }
+
+        yHigh = zHigh;
+        yLow = zLow;
+    }
+
+    /**
+     * Reads eight bytes as a big-endian long.
+     *
+     * @param bytes  The array to read from.
+     * @param offset The offset of the first byte.
+     * @return The long value.
+     */
+    private static long toLong(byte[] bytes, int offset) {
+        long value = 0;
+
+        for (int i = 0; i < Long.BYTES; ++i) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+
+        return value;
+    }
+
+}
@@ -98,6 +98,16 @@ public class Key {
         return bytes[i].getSegment(AES.NUMBER_BLOCKS, j);
     }
 
+    /**
+     * Converts the key to a single block.
+     *
+     * @return The block made of the key blocks.
+     * @see Block
+     */
+    public Block toBlock() {
+        return new Block(bytes);
+    }
+
     /**
      * Generates sub-keys using the key and the provided S-box.
      *
@@ -109,7 +119,7 @@ public class Key {
      * @see SBox
      */
     public Key[] generateSubKeys(SBox sBox) {
-        Block roundConstant = new Block(AES.NUMBER_BLOCKS * 2, (int) Math.pow(2, ((AES.NUMBER_BLOCKS * 2) - 1)));
+        Block roundConstant = new Block(AES.NUMBER_BLOCKS * 2, 1);
         Key[] subKeys = new Key[AES.NUMBER_ROUNDS];
         subKeys[0] = new Key(this);
 
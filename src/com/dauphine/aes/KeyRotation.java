@@ -0,0 +1,235 @@
+package com.dauphine.aes;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HexFormat;
+
+/**
+ * <p>
+ * Fused re-encryption engine rotating the key of encrypted data.
+ * This class provides methods re-encrypting a whole file under a new key, from its start or from a
+ * checkpoint left by an interrupted run.
+ * </p>
+ *
+ * <p>
+ * Each chunk of the {@link CipherPipeline} is processed in slices of {@code sliceSize} bytes, small
+ * enough to stay in cache: a slice is decrypted with the old key then immediately encrypted with the
+ * new one, so the plain text never goes back to memory and the data is traversed once instead of
+ * twice. Chunks are re-encrypted in parallel by the workers of the pipeline and written in order.
+ * Once at least {@code checkpointInterval} bytes have been written since the last checkpoint, and at the
+ * end of the input, the output is forced to the storage device and the listener receives the new
+ * checkpoint, the offset up to which the output is complete; a run restarted from that checkpoint
+ * produces the same output as an uninterrupted one. Checkpoints fall on chunk boundaries, so the
+ * interval trades the work lost to an interruption for fewer synchronous writes.
+ * </p>
+ *
+ * @author Nelson PROIA {@literal <nelson.proia@dauphine.eu>}
+ * @see CipherPipeline
+ * @see CTR
+ */
+public class KeyRotation {
+
+    /**
+     * The default size in bytes of a slice, fitting in the level 1 or 2 data cache.
+     */
+    public final static int DEFAULT_SLICE_SIZE = 32 * 1024;
+
+    /**
+     * The default number of bytes written between two checkpoints.
+     */
+    public final static long DEFAULT_CHECKPOINT_INTERVAL = 64L * 1024 * 1024;
+
+    /**
+     * Listener of the progress of a rotation.
+     */
+    @FunctionalInterface
+    public interface Listener {
+
+        /**
+         * Notifies the progress of a rotation, from the writer thread.
+         *
+         * @param checkpoint     The offset up to which the output is complete, from which a run can resume.
+         * @param size           The size in bytes of the input.
+         * @param bytesPerSecond The throughput of the current run so far.
+         */
+        void progress(long checkpoint, long size, double bytesPerSecond);
+
+    }
+
+    /**
+     * The pipeline applying the fused transformation.
+     *
+     * @see CipherPipeline
+     */
+    private final CipherPipeline pipeline;
+
+    /**
+     * The minimum number of bytes written between two checkpoints.
+     */
+    private final long checkpointInterval;
+
+    /**
+     * Constructs a rotation between two CTR encryptions, with default pipeline settings.
+     *
+     * @param oldCounter The CTR mode of the old key.
+     * @param newCounter The CTR mode of the new key.
+     * @see CTR
+     */
+    public KeyRotation(CTR oldCounter, CTR newCounter) {
+        this(oldCounter::process, newCounter::process, DEFAULT_SLICE_SIZE, CipherPipeline.DEFAULT_BUFFER_SIZE,
+                CipherPipeline.DEFAULT_DEPTH, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs a rotation between two encryptions.
+     *
+     * @param decrypt    The transformation decrypting with the old key, applied in place.
+     * @param encrypt    The transformation encrypting with the new key, applied in place.
+     * @param sliceSize  The size in bytes of a slice, a multiple of {@value AES#BLOCK_SIZE}.
+     * @param bufferSize The size in bytes of a pipeline chunk, a multiple of the slice size.
+     * @param depth      The number of pipeline chunks in flight.
+     * @param workers    The number of workers.
+     * @see CipherPipeline.Transform
+     */
+    public KeyRotation(CipherPipeline.Transform decrypt, CipherPipeline.Transform encrypt, int sliceSize, int bufferSize, int depth, int workers) {
+        this(decrypt, encrypt, sliceSize, bufferSize, depth, workers, DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+    /**
+     * Constructs a rotation between two encryptions, with a given checkpoint interval.
+     *
+     * @param decrypt            The transformation decrypting with the old key, applied in place.
+     * @param encrypt            The transformation encrypting with the new key, applied in place.
+     * @param sliceSize          The size in bytes of a slice, a multiple of {@value AES#BLOCK_SIZE}.
+     * @param bufferSize         The size in bytes of a pipeline chunk, a multiple of the slice size.
+     * @param depth              The number of pipeline chunks in flight.
+     * @param workers            The number of workers.
+     * @param checkpointInterval The minimum number of bytes written between two checkpoints, rounded up to whole chunks.
+     * @see CipherPipeline.Transform
+     */
+    public KeyRotation(CipherPipeline.Transform decrypt, CipherPipeline.Transform encrypt, int sliceSize, int bufferSize, int depth, int workers,
+                       long checkpointInterval) {
+        if (checkpointInterval < 1) {
+            throw new IllegalArgumentException("Checkpoint interval must be positive: " + checkpointInterval);
+        }
+
+        if (sliceSize < AES.BLOCK_SIZE || sliceSize % AES.BLOCK_SIZE != 0 || bufferSize % sliceSize != 0) {
+            throw new IllegalArgumentException("Slice size must be a multiple of " + AES.BLOCK_SIZE + " dividing the buffer size");
+        }
+
+        this.pipeline = new CipherPipeline(fuse(decrypt, encrypt, sliceSize), bufferSize, depth, workers);
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * Re-encrypts a whole file into another one.
+     *
+     * @param input    The file encrypted with the old key.
+     * @param output   The file receiving the data encrypted with the new key, created or truncated.
+     * @param listener The listener of the progress, may be null.
+     * @return The report of the run.
+     * @throws IOException If an I/O error occurs or a stage fails.
+     * @see CipherPipeline.Report
+     */
+    public CipherPipeline.Report rotate(Path input, Path output, Listener listener) throws IOException {
+        return rotate(input, output, 0, listener);
+    }
+
+    /**
+     * Re-encrypts a file into another one, resuming from a checkpoint of an interrupted run.
+     * The output is kept up to the checkpoint and rewritten after it.
+     *
+     * @param input      The file encrypted with the old key.
+     * @param output     The file receiving the data encrypted with the new key.
+     * @param checkpoint The checkpoint to resume from, 0 to start over: a multiple of {@value AES#BLOCK_SIZE},
+     *                   or the size of the input for a run that already completed.
+     * @param listener   The listener of the progress, may be null.
+     * @return The report of the run.
+     * @throws IOException If an I/O error occurs, a stage fails or the output does not reach the checkpoint.
+     * @see CipherPipeline.Report
+     */
+    public CipherPipeline.Report rotate(Path input, Path output, long checkpoint, Listener listener) throws IOException {
+        if (checkpoint < 0) {
+            throw new IllegalArgumentException("Checkpoint must be non-negative: " + checkpoint);
+        }
+
+        try (FileChannel source = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel target = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long size = source.size();
+
+            if (checkpoint > size || checkpoint > target.size()) {
+                throw new IOException("Checkpoint " + checkpoint + " is beyond the input or the output");
+            }
+
+            if (checkpoint % AES.BLOCK_SIZE != 0 && checkpoint != size) {
+                throw new IllegalArgumentException("Checkpoint must be a multiple of " + AES.BLOCK_SIZE + " or the input size: " + checkpoint);
+            }
+
+            target.truncate(checkpoint);
+            source.position(checkpoint);
+            target.position(checkpoint);
+
+            long begin = System.nanoTime();
+            long[] last = {checkpoint};
+
+            return pipeline.run(source, target, checkpoint, offset -> {
+                if (offset - last[0] < checkpointInterval && offset < size) {
+                    return;
+                }
+
+                last[0] = offset;
+                target.force(false);
+
+                if (listener != null) {
+                    listener.progress(offset, size, (offset - checkpoint) * 1e9 / Math.max(1, System.nanoTime() - begin));
+                }
+            });
+        }
+    }
+
+    /**
+     * Fuses a decryption and an encryption into one transformation applied slice by slice.
+     *
+     * @param decrypt   The transformation decrypting with the old key.
+     * @param encrypt   The transformation encrypting with the new key.
+     * @param sliceSize The size in bytes of a slice.
+     * @return The fused transformation.
+     */
+    private static CipherPipeline.Transform fuse(CipherPipeline.Transform decrypt, CipherPipeline.Transform encrypt, int sliceSize) {
+        return (offset, chunk) -> {
+            ByteBuffer slice = chunk.duplicate();
+
+            for (int start = chunk.position(); start < chunk.limit(); start += sliceSize) {
+                slice.limit(Math.min(start + sliceSize, chunk.limit())).position(start);
+
+                long sliceOffset = offset + start - chunk.position();
+                decrypt.apply(sliceOffset, slice);
+                encrypt.apply(sliceOffset, slice);
+            }
+        };
+    }
+
+    /**
+     * Rotates the CTR key of a file, printing the progress.
+     *
+     * @param args Command-line arguments: input file, output file, old key, old initial counter, new key,
+     *             new initial counter (all in hexadecimal), and optionally the checkpoint to resume from.
+     * @throws IOException If an I/O error occurs.
+     */
+    public static void main(String[] args) throws IOException {
+        HexFormat hex = HexFormat.of();
+        CTR oldCounter = new CTR(new AES(new Block(hex.parseHex(args[2]))), hex.parseHex(args[3]));
+        CTR newCounter = new CTR(new AES(new Block(hex.parseHex(args[4]))), hex.parseHex(args[5]));
+        long checkpoint = args.length > 6 ? Long.parseLong(args[6]) : 0;
+
+        CipherPipeline.Report report = new KeyRotation(oldCounter, newCounter).rotate(Path.of(args[0]), Path.of(args[1]), checkpoint,
+                (offset, size, throughput) -> System.out.printf("checkpoint %d / %d bytes (%.1f%%), %.2f MB/s%n",
+                        offset, size, 100.0 * offset / Math.max(1, size), throughput / 1e6));
+
+        System.out.println(report);
+    }
+
+}
@@ -0,0 +1,407 @@
+package com.dauphine.aes;
+
+import javax.crypto.AEADBadTagException;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.CompletionException;
+
+/**
+ * <p>
+ * Implementation of the AES Key Wrap algorithm (RFC 3394) and of its variant with padding (RFC 5649).
+ * This class provides methods wrapping and unwrapping a single key, and batch methods spreading
+ * independent keys in parallel when the {@link ParallelismController} deems the batch large enough.
+ * </p>
+ *
+ * <p>
+ * An instance holds a single key-encryption cipher, so the key schedule of the master key is expanded
+ * once and shared by every wrap and unwrap, including those of a batch. Integrity failures are reported
+ * as {@link AEADBadTagException}, without telling which check failed.
+ * </p>
+ *
+ * @author Nelson PROIA {@literal <nelson.proia@dauphine.eu>}
+ * @see AES
+ * @see BlockCipher
+ */
+public class KeyWrap {
+
+    /**
+     * The length in bytes of a semiblock.
+     */
+    public final static int SEMIBLOCK_SIZE = AES.BLOCK_SIZE / 2;
+
+    /**
+     * The default initial value of RFC 3394.
+     */
+    private final static long DEFAULT_IV = 0xA6A6A6A6A6A6A6A6L;
+
+    /**
+     * The alternative initial value prefix of RFC 5649, followed by the 32-bit message length.
+     */
+    private final static int ALTERNATIVE_IV = 0xA65959A6;
+
+    /**
+     * The key-encryption block cipher.
+     *
+     * @see BlockCipher
+     */
+    private final BlockCipher cipher;
+
+    /**
+     * The controller splitting the batches.
+     *
+     * @see ParallelismController
+     */
+    private final ParallelismController controller;
+
+    /**
+     * Constructs a key wrap on top of the given key-encryption block cipher, its batches being split by the
+     * shared controller.
+     *
+     * @param cipher The key-encryption block cipher.
+     * @see BlockCipher
+     */
+    public KeyWrap(BlockCipher cipher) {
+        this(cipher, ParallelismController.common());
+    }
+
+    /**
+     * Constructs a key wrap on top of the given key-encryption block cipher.
+     *
+     * @param cipher     The key-encryption block cipher.
+     * @param controller The controller splitting the batches.
+     * @see BlockCipher
+     * @see ParallelismController
+     */
+    public KeyWrap(BlockCipher cipher, ParallelismController controller) {
+        this.cipher = cipher;
+        this.controller = controller;
+    }
+
+    /**
+     * Wraps a key (RFC 3394).
+     *
+     * @param key The key, a multiple of {@value #SEMIBLOCK_SIZE} bytes and at least two semiblocks long.
+     * @return The wrapped key, one semiblock longer.
+     */
+    public byte[] wrap(byte[] key) {
+        if (key.length % SEMIBLOCK_SIZE != 0 || key.length < 2 * SEMIBLOCK_SIZE) {
+            throw new IllegalArgumentException("Key length must be a multiple of " + SEMIBLOCK_SIZE + " bytes, at least " + 2 * SEMIBLOCK_SIZE);
+        }
+
+        return wrap(DEFAULT_IV, key);
+    }
+
+    /**
+     * Unwraps a key (RFC 3394).
+     *
+     * @param wrapped The wrapped key.
+     * @return The key.
+     * @throws AEADBadTagException If the wrapped key is malformed or not authentic.
+     */
+    public byte[] unwrap(byte[] wrapped) throws AEADBadTagException {
+        if (wrapped.length % SEMIBLOCK_SIZE != 0 || wrapped.length < 3 * SEMIBLOCK_SIZE) {
+            throw new AEADBadTagException("Invalid wrapped key length");
+        }
+
+        byte[] output = new byte[wrapped.length - SEMIBLOCK_SIZE];
+        long iv = unwrap(wrapped, output);
+
+        check(iv == DEFAULT_IV, output);
+
+        return output;
+    }
+
+    /**
+     * Wraps a key of any length with padding (RFC 5649).
+     *
+     * @param key The key, at least one byte long.
+     * @return The wrapped key.
+     */
+    public byte[] wrapWithPadding(byte[] key) {
+        if (key.length == 0) {
+            throw new IllegalArgumentException("Key must not be empty");
+        }
+
+        long iv = ((long) ALTERNATIVE_IV << 32) | key.length;
+        byte[] padded = Arrays.copyOf(key, (key.length + SEMIBLOCK_SIZE - 1) / SEMIBLOCK_SIZE * SEMIBLOCK_SIZE);
+
+        if (padded.length == SEMIBLOCK_SIZE) {
+            return cipher.cipher(ByteBuffer.allocate(AES.BLOCK_SIZE).putLong(iv).put(padded).array());
+        }
+
+        return wrap(iv, padded);
+    }
+
+    /**
+     * Unwraps a key wrapped with padding (RFC 5649).
+     *
+     * @param wrapped The wrapped key.
+     * @return The key.
+     * @throws AEADBadTagException If the wrapped key is malformed or not authentic.
+     */
+    public byte[] unwrapWithPadding(byte[] wrapped) throws AEADBadTagException {
+        if (wrapped.length % SEMIBLOCK_SIZE != 0 || wrapped.length < 2 * SEMIBLOCK_SIZE) {
+            throw new AEADBadTagException("Invalid wrapped key length");
+        }
+
+        byte[] padded = new byte[wrapped.length - SEMIBLOCK_SIZE];
+        long iv;
+
+        if (padded.length == SEMIBLOCK_SIZE) {
+            ByteBuffer block = ByteBuffer.wrap(cipher.decipher(wrapped));
+            iv = block.getLong();
+            block.get(padded);
+        } else {
+            iv = unwrap(wrapped, padded);
+        }
+
+        int length = (int) iv;
+        int padding = padded.length - length;
+        int invalid = (int) (iv >>> 32) ^ ALTERNATIVE_IV;
+
+        invalid |= (padding < 0 || padding >= SEMIBLOCK_SIZE) ? 1 : 0;
+
+        for (int i = 0; i < padded.length; ++i) {
+            invalid |= i >= length ? padded[i] : 0;
+        }
+
+        check(invalid == 0, padded);
+
+        return Arrays.copyOf(padded, length);
+    }
+
+    /**
+     * Wraps a batch of keys (RFC 3394), in parallel if the batch is large enough.
+     *
+     * @param keys The keys.
+     * @return The wrapped keys, in the order of the keys.
+     */
+    public byte[][] wrapAll(byte[][] keys) {
+        byte[][] wrapped = new byte[keys.length][];
+
+        controller.forEach(cipher.getClass(), "KW", keys.length, ParallelismController.averageSize(keys), 1, (start, end) -> {
+            for (int i = (int) start; i < end; ++i) {
+                wrapped[i] = wrap(keys[i]);
+            }
+        });
+
+        return wrapped;
+    }
+
+    /**
+     * Unwraps a batch of keys (RFC 3394), in parallel if the batch is large enough.
+     *
+     * @param wrapped The wrapped keys.
+     * @return The keys, in the order of the wrapped keys.
+     * @throws AEADBadTagException If any wrapped key is malformed or not authentic.
+     */
+    public byte[][] unwrapAll(byte[][] wrapped) throws AEADBadTagException {
+        return unwrapAll(wrapped, false);
+    }
+
+    /**
+     * Wraps a batch of keys with padding (RFC 5649), in parallel if the batch is large enough.
+     *
+     * @param keys The keys.
+     * @return The wrapped keys, in the order of the keys.
+     */
+    public byte[][] wrapAllWithPadding(byte[][] keys) {
+        byte[][] wrapped = new byte[keys.length][];
+
+        controller.forEach(cipher.getClass(), "KWP", keys.length, ParallelismController.averageSize(keys), 1, (start, end) -> {
+            for (int i = (int) start; i < end; ++i) {
+                wrapped[i] = wrapWithPadding(keys[i]);
+            }
+        });
+
+        return wrapped;
+    }
+
+    /**
+     * Unwraps a batch of keys wrapped with padding (RFC 5649), in parallel if the batch is large enough.
+     *
+     * @param wrapped The wrapped keys.
+     * @return The keys, in the order of the wrapped keys.
+     * @throws AEADBadTagException If any wrapped key is malformed or not authentic.
+     */
+    public byte[][] unwrapAllWithPadding(byte[][] wrapped) throws AEADBadTagException {
+        return unwrapAll(wrapped, true);
+    }
+
+    /**
+     * Unwraps a batch of keys, in parallel if the batch is large enough.
+     *
+     * @param wrapped The wrapped keys.
+     * @param padding Whether the keys are wrapped with padding.
+     * @return The keys, in the order of the wrapped keys.
+     * @throws AEADBadTagException If any wrapped key is malformed or not authentic.
+     */
+    private byte[][] unwrapAll(byte[][] wrapped, boolean padding) throws AEADBadTagException {
+        byte[][] keys = new byte[wrapped.length][];
+
+        try {
+            controller.forEach(cipher.getClass(), padding ? "KWP" : "KW", wrapped.length,
+                    ParallelismController.averageSize(wrapped), 1, (start, end) -> {
+                        for (int i = (int) start; i < end; ++i) {
+                            try {
+                                keys[i] = padding ? unwrapWithPadding(wrapped[i]) : unwrap(wrapped[i]);
+                            } catch (AEADBadTagException e) {
+                                throw new CompletionException(e);
+                            }
+                        }
+                    });
+        } catch (CompletionException e) {
+            throw new AEADBadTagException(e.getCause().getMessage());
+        }
+
+        return keys;
+    }
+
+    /**
+     * Applies the wrapping process W (RFC 3394, section 2.2.1) to the given semiblocks.
+     *
+     * @param iv    The initial value.
+     * @param plain The semiblocks to wrap, at least two.
+     * @return The initial value register followed by the wrapped semiblocks.
+     */
+    private byte[] wrap(long iv, byte[] plain) {
+        int n = plain.length / SEMIBLOCK_SIZE;
+        byte[] output = new byte[plain.length + SEMIBLOCK_SIZE];
+        byte[] block = new byte[AES.BLOCK_SIZE];
+        long register = iv;
+
+        System.arraycopy(plain, 0, output, SEMIBLOCK_SIZE, plain.length);
+
+        for (int j = 0; j < 6; ++j) {
+            for (int i = 1; i <= n; ++i) {
+                putLong(block, 0, register);
+                System.arraycopy(output, i * SEMIBLOCK_SIZE, block, SEMIBLOCK_SIZE, SEMIBLOCK_SIZE);
+
+                byte[] encrypted = cipher.cipher(block);
+                register = getLong(encrypted, 0) ^ ((long) n * j + i);
+                System.arraycopy(encrypted, SEMIBLOCK_SIZE, output, i * SEMIBLOCK_SIZE, SEMIBLOCK_SIZE);
+            }
+        }
+
+        putLong(output, 0, register);
+
+        return output;
+    }
+
+    /**
+     * Applies the unwrapping process W<sup>-1</sup> (RFC 3394, section 2.2.2) to the given semiblocks.
+     *
+     * @param wrapped The initial value register followed by the wrapped semiblocks, at least three semiblocks.
+     * @param output  The array receiving the unwrapped semiblocks.
+     * @return The recovered initial value, to be checked by the caller.
+     */
+    private long unwrap(byte[] wrapped, byte[] output) {
+        int n = output.length / SEMIBLOCK_SIZE;
+        byte[] block = new byte[AES.BLOCK_SIZE];
+        long register = getLong(wrapped, 0);
+
+        System.arraycopy(wrapped, SEMIBLOCK_SIZE, output, 0, output.length);
+
+        for (int j = 5; j >= 0; --j) {
+            for (int i = n; i >= 1; --i) {
+                putLong(block, 0, register ^ ((long) n * j + i));
+                System.arraycopy(output, (i - 1) * SEMIBLOCK_SIZE, block, SEMIBLOCK_SIZE, SEMIBLOCK_SIZE);
+
+                byte[] decrypted = cipher.decipher(block);
+                register = getLong(decrypted, 0);
+                System.arraycopy(decrypted, SEMIBLOCK_SIZE, output, (i - 1) * SEMIBLOCK_SIZE, SEMIBLOCK_SIZE);
+            }
+        }
+
+        return register;
+    }
+
+    /**
+     * Throws if an integrity check failed, wiping the unwrapped bytes first.
+     *
+     * @param valid  Whether the check succeeded.
+     * @param output The unwrapped bytes.
+     * @throws AEADBadTagException If the check failed.
+     */
+    private static void check(boolean valid, byte[] output) throws AEADBadTagException {
+        if (!valid) {
+            Arrays.fill(output, (byte) 0);
+            throw new AEADBadTagException("Integrity check failed");
+        }
+    }
+
+    /**
+     * Reads a big-endian long.
+     *
+     * @param bytes  The array.
+     * @param offset The offset of the first byte.
+     * @return The long value.
+     */
+    private static long getLong(byte[] bytes, int offset) {
+        long value = 0;
+
+        for (int i = 0; i < Long.BYTES; ++i) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+
+        return value;
+    }
+
+    /**
+     * Writes a big-endian long.
+     *
+     * @param bytes  The array.
+     * @param offset The offset of the first byte.
+     * @param value  The long value.
+     */
+    private static void putLong(byte[] bytes, int offset, long value) {
+        for (int i = Long.BYTES - 1; i >= 0; --i) {
+            bytes[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    /**
+     * Measures the throughput of unwrapping data keys one by one and as a batch under one master key.
+     *
+     * @param args Command-line arguments: optional number of data keys.
+     * @throws AEADBadTagException If a key does not unwrap back, which would be a bug.
+     */
+    public static void main(String[] args) throws AEADBadTagException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+
+        SecureRandom random = new SecureRandom();
+        byte[] masterKey = new byte[AES.BLOCK_SIZE];
+        byte[][] keys = new byte[count][AES.BLOCK_SIZE];
+        random.nextBytes(masterKey);
+
+        for (byte[] key : keys) {
+            random.nextBytes(key);
+        }
+
+        KeyWrap keyWrap = new KeyWrap(new AES(new Block(masterKey)));
+        byte[][] wrapped = keyWrap.wrapAll(keys);
+
+        long begin = System.nanoTime();
+
+        for (byte[] key : wrapped) {
+            keyWrap.unwrap(key);
+        }
+
+        double sequentialSeconds = (System.nanoTime() - begin) / 1e9;
+
+        begin = System.nanoTime();
+        byte[][] unwrapped = keyWrap.unwrapAll(wrapped);
+        double batchSeconds = (System.nanoTime() - begin) / 1e9;
+
+        if (!Arrays.deepEquals(keys, unwrapped)) {
+            throw new IllegalStateException("Batch does not unwrap back");
+        }
+
+        System.out.printf("Sequential unwrap : %10.1f keys/s (%.2f s for %d keys)%n", count / sequentialSeconds, sequentialSeconds, count);
+        System.out.printf("Batch unwrap      : %10.1f keys/s (%.2f s for %d keys, %d cores)%n", count / batchSeconds, batchSeconds, count,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+}
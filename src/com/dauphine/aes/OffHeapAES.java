@@ -0,0 +1,416 @@
+package com.dauphine.aes;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * <p>
+ * Implementation of AES whose round keys and scratch state live off-heap, in {@link MemorySegment}s.
+ * This class provides methods for encryption (ciphering) and decryption (deciphering) reading the
+ * round keys straight from the segment.
+ * </p>
+ *
+ * <p>
+ * Unlike the {@link Key} objects of {@link AES}, the key schedule is never copied around by the
+ * garbage collector, and {@link #close()} zeroizes it. The round keys are allocated from either a
+ * shared arena owned by the instance, or an arena supplied by the caller (for instance a shared
+ * arena holding a large key cache), in which case closing the instance wipes them but leaves the
+ * arena open. Each thread gets its own scratch state, allocated from the same arena on its first
+ * block, so an instance is thread safe as long as the threads using it can access that arena:
+ * a confined arena supplied by the caller restricts it to the owner thread of that arena. An instance
+ * must not be closed while it is in use. This class requires the Foreign Function &amp; Memory API
+ * (Java 22 or later).
+ * </p>
+ *
+ * @author Nelson PROIA {@literal <nelson.proia@dauphine.eu>}
+ * @see AES
+ * @see BlockCipher
+ * @see SBox
+ */
+public class OffHeapAES implements BlockCipher, AutoCloseable {
+
+    /**
+     * The size in bytes of the expanded key schedule.
+     */
+    public final static int SCHEDULE_SIZE = AES.NUMBER_ROUNDS * AES.BLOCK_SIZE;
+
+    /**
+     * The S-box for byte substitution during encryption.
+     *
+     * @see SBox
+     */
+    private static final SBox S_BOX = new SBox(AES.sBoxValues);
+
+    /**
+     * The inverse S-box for byte substitution during decryption.
+     *
+     * @see SBox
+     */
+    private static final SBox S_BOX_INVERT = new SBox(AES.sBoxInvertValues);
+
+    /**
+     * The arena of the round keys and scratch states.
+     */
+    private final Arena arena;
+
+    /**
+     * Whether the arena is owned, and thus closed, by this instance.
+     */
+    private final boolean owned;
+
+    /**
+     * The round keys, {@value #SCHEDULE_SIZE} bytes, round after round.
+     */
+    private final MemorySegment roundKeys;
+
+    /**
+     * The scratch states of every thread, wiped on close.
+     */
+    private final Queue<MemorySegment> scratches = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The scratch state of the current thread: the current state followed by a temporary state.
+     */
+    private final ThreadLocal<MemorySegment> scratch;
+
+    /**
+     * Whether the instance has been closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Constructs an OffHeapAES instance with the given key, in its own shared arena.
+     *
+     * @param key The Block representing the key.
+     * @see Block
+     */
+    public OffHeapAES(Block key) {
+        this(Arena.ofShared(), true, MemorySegment.ofArray(key.toBytes()));
+    }
+
+    /**
+     * Constructs an OffHeapAES instance with the given key, allocating from the given arena.
+     * Closing the instance zeroizes its segments but does not close the arena.
+     *
+     * @param key   The segment holding the {@value AES#BLOCK_SIZE} bytes of the key.
+     * @param arena The arena to allocate the key schedule and scratch states from, accessible from every thread
+     *              using the instance.
+     */
+    public OffHeapAES(MemorySegment key, Arena arena) {
+        this(arena, false, key);
+    }
+
+    /**
+     * Constructs an OffHeapAES instance and expands the key into the round key segment.
+     *
+     * @param arena The arena to allocate from.
+     * @param owned Whether the arena is owned, and thus closed, by this instance.
+     * @param key   The segment holding the key.
+     */
+    private OffHeapAES(Arena arena, boolean owned, MemorySegment key) {
+        if (key.byteSize() != AES.BLOCK_SIZE) {
+            throw new IllegalArgumentException("Key must be " + AES.BLOCK_SIZE + " bytes: " + key.byteSize());
+        }
+
+        this.arena = arena;
+        this.owned = owned;
+        this.roundKeys = arena.allocate(SCHEDULE_SIZE, AES.BLOCK_SIZE);
+        this.scratch = ThreadLocal.withInitial(() -> {
+            MemorySegment segment = arena.allocate(2 * AES.BLOCK_SIZE, AES.BLOCK_SIZE);
+            scratches.add(segment);
+
+            return segment;
+        });
+
+        MemorySegment.copy(key, 0, roundKeys, 0, AES.BLOCK_SIZE);
+        expandKey();
+    }
+
+    /**
+     * Expands the key held in the first round key into the remaining round keys.
+     */
+    private void expandKey() {
+        int roundConstant = 1;
+
+        for (int word = AES.NUMBER_BLOCKS; word < AES.NUMBER_ROUNDS * AES.NUMBER_BLOCKS; ++word) {
+            long previous = (long) (word - 1) * AES.NUMBER_BLOCKS;
+            long first = (long) (word - AES.NUMBER_BLOCKS) * AES.NUMBER_BLOCKS;
+
+            for (int i = 0; i < AES.NUMBER_BLOCKS; ++i) {
+                int temp;
+
+                if (word % AES.NUMBER_BLOCKS == 0) {
+                    temp = S_BOX.cipher(get(roundKeys, previous + (i + 1) % AES.NUMBER_BLOCKS));
+                    temp ^= i == 0 ? roundConstant : 0;
+                } else {
+                    temp = get(roundKeys, previous + i);
+                }
+
+                set(roundKeys, (long) word * AES.NUMBER_BLOCKS + i, get(roundKeys, first + i) ^ temp);
+            }
+
+            if (word % AES.NUMBER_BLOCKS == 0) {
+                roundConstant = multiplyByX(roundConstant);
+            }
+        }
+    }
+
+    /**
+     * Ciphers one block from the input segment into the output segment.
+     * Both segments may be the same.
+     *
+     * @param input  The segment holding the {@value AES#BLOCK_SIZE} bytes of the plain block.
+     * @param output The segment receiving the {@value AES#BLOCK_SIZE} bytes of the encrypted block.
+     */
+    public void cipher(MemorySegment input, MemorySegment output) {
+        ensureOpen();
+        MemorySegment state = scratch.get();
+        MemorySegment.copy(input, 0, state, 0, AES.BLOCK_SIZE);
+
+        int round = 0;
+        addRoundKey(state, round);
+
+        for (round = 1; round < AES.NUMBER_ROUNDS - 1; ++round) {
+            substituteShift(state, S_BOX, 1);
+            mixColumns(state);
+            addRoundKey(state, round);
+        }
+
+        substituteShift(state, S_BOX, 1);
+        addRoundKey(state, round);
+
+        MemorySegment.copy(state, 0, output, 0, AES.BLOCK_SIZE);
+    }
+
+    /**
+     * Deciphers one block from the input segment into the output segment.
+     * Both segments may be the same.
+     *
+     * @param input  The segment holding the {@value AES#BLOCK_SIZE} bytes of the cipher block.
+     * @param output The segment receiving the {@value AES#BLOCK_SIZE} bytes of the decrypted block.
+     */
+    public void decipher(MemorySegment input, MemorySegment output) {
+        ensureOpen();
+        MemorySegment state = scratch.get();
+        MemorySegment.copy(input, 0, state, 0, AES.BLOCK_SIZE);
+
+        int round = AES.NUMBER_ROUNDS - 1;
+        addRoundKey(state, round);
+
+        for (round = AES.NUMBER_ROUNDS - 2; round > 0; --round) {
+            substituteShift(state, S_BOX_INVERT, AES.NUMBER_BLOCKS - 1);
+            addRoundKey(state, round);
+            mixColumnsInvert(state);
+        }
+
+        substituteShift(state, S_BOX_INVERT, AES.NUMBER_BLOCKS - 1);
+        addRoundKey(state, round);
+
+        MemorySegment.copy(state, 0, output, 0, AES.BLOCK_SIZE);
+    }
+
+    /**
+     * Ciphers the given plain text bytes.
+     *
+     * @param plain The {@value AES#BLOCK_SIZE} bytes of the plain block.
+     * @return The {@value AES#BLOCK_SIZE} bytes of the encrypted block.
+     */
+    @Override
+    public byte[] cipher(byte[] plain) {
+        byte[] cipher = new byte[AES.BLOCK_SIZE];
+        cipher(MemorySegment.ofArray(plain), MemorySegment.ofArray(cipher));
+
+        return cipher;
+    }
+
+    /**
+     * Deciphers the given cipher text bytes.
+     *
+     * @param cipher The {@value AES#BLOCK_SIZE} bytes of the cipher block.
+     * @return The {@value AES#BLOCK_SIZE} bytes of the decrypted block.
+     */
+    @Override
+    public byte[] decipher(byte[] cipher) {
+        byte[] plain = new byte[AES.BLOCK_SIZE];
+        decipher(MemorySegment.ofArray(cipher), MemorySegment.ofArray(plain));
+
+        return plain;
+    }
+
+    /**
+     * Ciphers the given plain text block.
+     *
+     * @param plain The Block representing the plain block.
+     * @return The encrypted Block.
+     * @see Block
+     */
+    public Block cipher(Block plain) {
+        return new Block(cipher(plain.toBytes()));
+    }
+
+    /**
+     * Deciphers the given cipher text block.
+     *
+     * @param cipher The Block representing the cipher text.
+     * @return The decrypted Block.
+     * @see Block
+     */
+    public Block decipher(Block cipher) {
+        return new Block(decipher(cipher.toBytes()));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Zeroizes the round keys and scratch states, then closes the arena if it is owned by this instance.
+     * Segments allocated from an arena supplied by the caller are only wiped if that arena is still open.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        if (roundKeys.scope().isAlive()) {
+            roundKeys.fill((byte) 0);
+            scratches.forEach(segment -> segment.fill((byte) 0));
+        }
+
+        if (owned) {
+            arena.close();
+        }
+    }
+
+    /**
+     * XORs the state with the round key of the given round.
+     *
+     * @param state The scratch state.
+     * @param round The round.
+     */
+    private void addRoundKey(MemorySegment state, int round) {
+        long offset = (long) round * AES.BLOCK_SIZE;
+
+        for (int i = 0; i < AES.BLOCK_SIZE; ++i) {
+            set(state, i, get(state, i) ^ get(roundKeys, offset + i));
+        }
+    }
+
+    /**
+     * Substitutes the bytes of the state and rotates each row {@code r} left by {@code r * step} columns.
+     * A step of 1 is ShiftRows, a step of 3 is InvShiftRows.
+     *
+     * @param state The state state.
+     * @param sBox  The S-box to use for substitution.
+     * @param step  The rotation step.
+     */
+    private static void substituteShift(MemorySegment state, SBox sBox, int step) {
+        for (int column = 0; column < AES.NUMBER_BLOCKS; ++column) {
+            for (int row = 0; row < AES.NUMBER_BLOCKS; ++row) {
+                int source = row + AES.NUMBER_BLOCKS * ((column + row * step) % AES.NUMBER_BLOCKS);
+                set(state, AES.BLOCK_SIZE + row + AES.NUMBER_BLOCKS * column, sBox.cipher(get(state, source)));
+            }
+        }
+
+        MemorySegment.copy(state, AES.BLOCK_SIZE, state, 0, AES.BLOCK_SIZE);
+    }
+
+    /**
+     * Multiplies each column of the state by the mix columns matrix.
+     *
+     * @param state The state state.
+     */
+    private static void mixColumns(MemorySegment state) {
+        for (long column = 0; column < AES.BLOCK_SIZE; column += AES.NUMBER_BLOCKS) {
+            int a0 = get(state, column), a1 = get(state, column + 1);
+            int a2 = get(state, column + 2), a3 = get(state, column + 3);
+
+            set(state, column, multiply(a0, 2) ^ multiply(a1, 3) ^ a2 ^ a3);
+            set(state, column + 1, a0 ^ multiply(a1, 2) ^ multiply(a2, 3) ^ a3);
+            set(state, column + 2, a0 ^ a1 ^ multiply(a2, 2) ^ multiply(a3, 3));
+            set(state, column + 3, multiply(a0, 3) ^ a1 ^ a2 ^ multiply(a3, 2));
+        }
+    }
+
+    /**
+     * Multiplies each column of the state by the inverse mix columns matrix.
+     *
+     * @param state The state state.
+     */
+    private static void mixColumnsInvert(MemorySegment state) {
+        for (long column = 0; column < AES.BLOCK_SIZE; column += AES.NUMBER_BLOCKS) {
+            int a0 = get(state, column), a1 = get(state, column + 1);
+            int a2 = get(state, column + 2), a3 = get(state, column + 3);
+
+            set(state, column, multiply(a0, 14) ^ multiply(a1, 11) ^ multiply(a2, 13) ^ multiply(a3, 9));
+            set(state, column + 1, multiply(a0, 9) ^ multiply(a1, 14) ^ multiply(a2, 11) ^ multiply(a3, 13));
+            set(state, column + 2, multiply(a0, 13) ^ multiply(a1, 9) ^ multiply(a2, 14) ^ multiply(a3, 11));
+            set(state, column + 3, multiply(a0, 11) ^ multiply(a1, 13) ^ multiply(a2, 9) ^ multiply(a3, 14));
+        }
+    }
+
+    /**
+     * Throws if the instance has been closed.
+     */
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Key schedule has been closed");
+        }
+    }
+
+    /**
+     * Multiplies two bytes in GF(2^8), without branching on their values.
+     *
+     * @param a The first byte.
+     * @param b The second byte.
+     * @return The product.
+     */
+    static int multiply(int a, int b) {
+        int result = 0;
+
+        for (int i = 0; i < 8; ++i) {
+            result ^= -(b & 1) & a;
+            a = multiplyByX(a);
+            b >>>= 1;
+        }
+
+        return result;
+    }
+
+    /**
+     * Multiplies a byte by X in GF(2^8), without branching on its value.
+     *
+     * @param a The byte.
+     * @return The product.
+     */
+    static int multiplyByX(int a) {
+        return ((a << 1) ^ (-(a >>> 7) & 0x1B)) & 0xFF;
+    }
+
+    /**
+     * Reads an unsigned byte from a segment.
+     *
+     * @param segment The segment.
+     * @param offset  The offset of the byte.
+     * @return The unsigned byte value.
+     */
+    private static int get(MemorySegment segment, long offset) {
+        return segment.get(ValueLayout.JAVA_BYTE, offset) & 0xFF;
+    }
+
+    /**
+     * Writes a byte to a segment.
+     *
+     * @param segment The segment.
+     * @param offset  The offset of the byte.
+     * @param value   The byte value.
+     */
+    private static void set(MemorySegment segment, long offset, int value) {
+        segment.set(ValueLayout.JAVA_BYTE, offset, (byte) value);
+    }
+
+}
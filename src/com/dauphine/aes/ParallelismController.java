@@ -0,0 +1,738 @@
+package com.dauphine.aes;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * <p>
+ * Adaptive controller choosing how to split bulk work between threads.
+ * This class provides methods deciding, then running, a transformation of a payload either on the calling thread
+ * or as parallel chunks, and reporting the decisions it took for each engine and mode.
+ * </p>
+ *
+ * <p>
+ * A chunk handed to another thread only pays off when its work dwarfs the cost of the handoff. The controller keeps,
+ * for each pair of engine and mode, a moving average of the observed cost per byte, and a moving average of the
+ * handoff overhead of its pool, first probed with empty tasks then observed on each parallel run as the time not
+ * spent in the slowest chunk. The smallest worthwhile chunk does {@value #OVERHEAD_RATIO} times the work of a
+ * handoff: a payload smaller than two of them stays on the calling thread, a larger one is cut into as many equal
+ * chunks as fit, up to the parallelism of the pool. The slow {@link State} path of {@link AES} thus scales out at a
+ * few kilobytes while a table-driven engine waits for a few hundred.
+ * </p>
+ *
+ * <p>
+ * The first run of a pair calibrates it by processing a prefix of {@value #CALIBRATION_SIZE} bytes on the calling
+ * thread, so a large first payload is still split. Transformations must be thread safe and only depend on the
+ * offset of each byte, as {@link CTR} is.
+ * </p>
+ *
+ * <p>
+ * Payloads of bytes go through {@link #process(Class, String, ByteBuffer, long, int, CipherPipeline.Transform)},
+ * as in {@link CTR}, and batches of independent items through {@link #forEach(Class, String, long, int, int, Task)},
+ * as in {@link ColumnCipher}, {@link KeyWrap} and {@link SIV}, so that a single key wrap or a small column stays on
+ * the calling thread. {@link CipherPipeline} keeps its fixed number of workers, overlapping the transformation
+ * with the I/O, and {@link ContainerWriter} its fixed chunk size and parallelism, each chunk being authenticated
+ * as a whole.
+ * </p>
+ *
+ * @author Nelson PROIA {@literal <nelson.proia@dauphine.eu>}
+ * @see CipherPipeline.Transform
+ */
+public class ParallelismController {
+
+    /**
+     * The ratio between the work of the smallest parallel chunk and the handoff overhead.
+     */
+    public final static int OVERHEAD_RATIO = 20;
+
+    /**
+     * The size in bytes of the prefix processed on the calling thread to calibrate a new pair.
+     */
+    public final static int CALIBRATION_SIZE = 16 * 1024;
+
+    /**
+     * The weight of a new sample in the moving averages.
+     */
+    private final static double SMOOTHING = 0.25;
+
+    /**
+     * The minimum size in bytes of a sequential run used as a cost sample, below which the timer is too coarse.
+     */
+    private final static int MIN_SAMPLE_SIZE = 1024;
+
+    /**
+     * The number of empty tasks timed by a handoff probe.
+     */
+    private final static int PROBES = 32;
+
+    /**
+     * The number of runs of a pair between two handoff probes, so that a pair gone sequential can scale out again.
+     */
+    private final static int PROBE_INTERVAL = 64;
+
+    /**
+     * Task processing a range of items, or of bytes.
+     */
+    @FunctionalInterface
+    public interface Task {
+
+        /**
+         * Processes the items of a range.
+         *
+         * @param start The index of the first item.
+         * @param end   The index following the last item.
+         */
+        void apply(long start, long end);
+
+    }
+
+    /**
+     * Holder of the controller shared by the batch methods, created on first use.
+     */
+    private static final class Common {
+
+        /**
+         * The controller running chunks on the common pool.
+         */
+        private final static ParallelismController INSTANCE = new ParallelismController();
+
+    }
+
+    /**
+     * <p>
+     * Decision of the controller for a payload: its degree of parallelism and the size of its chunks.
+     * </p>
+     */
+    public static final class Decision {
+
+        /**
+         * The number of chunks run concurrently, 1 for the calling thread only.
+         */
+        private final int parallelism;
+
+        /**
+         * The size in bytes of a chunk.
+         */
+        private final long chunkSize;
+
+        /**
+         * Constructs a decision.
+         *
+         * @param parallelism The number of chunks run concurrently.
+         * @param chunkSize   The size in bytes of a chunk.
+         */
+        Decision(int parallelism, long chunkSize) {
+            this.parallelism = parallelism;
+            this.chunkSize = chunkSize;
+        }
+
+        /**
+         * Returns the degree of parallelism.
+         *
+         * @return The number of chunks run concurrently, 1 for the calling thread only.
+         */
+        public int parallelism() {
+            return parallelism;
+        }
+
+        /**
+         * Returns the size of a chunk.
+         *
+         * @return The size in bytes of a chunk.
+         */
+        public long chunkSize() {
+            return chunkSize;
+        }
+
+        /**
+         * Returns whether the payload is processed in parallel.
+         *
+         * @return True if there is more than one chunk.
+         */
+        public boolean isParallel() {
+            return parallelism > 1;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @return The string representation of the decision.
+         */
+        @Override
+        public String toString() {
+            return isParallel() ? parallelism + " x " + chunkSize + " bytes" : "sequential";
+        }
+
+    }
+
+    /**
+     * <p>
+     * Snapshot of what the controller measured and decided for a pair of engine and mode.
+     * </p>
+     */
+    public static final class Metrics {
+
+        /**
+         * The number of runs.
+         */
+        private final long runs;
+
+        /**
+         * The number of parallel runs.
+         */
+        private final long parallelRuns;
+
+        /**
+         * The number of bytes processed.
+         */
+        private final long bytes;
+
+        /**
+         * The average cost of a byte, in nanoseconds.
+         */
+        private final double nanosPerByte;
+
+        /**
+         * The average handoff overhead, in nanoseconds.
+         */
+        private final double handoffNanos;
+
+        /**
+         * The smallest payload in bytes processed in parallel.
+         */
+        private final long threshold;
+
+        /**
+         * The last decision.
+         */
+        private final Decision last;
+
+        /**
+         * Constructs a snapshot.
+         *
+         * @param runs         The number of runs.
+         * @param parallelRuns The number of parallel runs.
+         * @param bytes        The number of bytes processed.
+         * @param nanosPerByte The average cost of a byte, in nanoseconds.
+         * @param handoffNanos The average handoff overhead, in nanoseconds.
+         * @param threshold    The smallest payload in bytes processed in parallel.
+         * @param last         The last decision.
+         */
+        Metrics(long runs, long parallelRuns, long bytes, double nanosPerByte, double handoffNanos, long threshold, Decision last) {
+            this.runs = runs;
+            this.parallelRuns = parallelRuns;
+            this.bytes = bytes;
+            this.nanosPerByte = nanosPerByte;
+            this.handoffNanos = handoffNanos;
+            this.threshold = threshold;
+            this.last = last;
+        }
+
+        /**
+         * Returns the number of runs.
+         *
+         * @return The number of runs.
+         */
+        public long runs() {
+            return runs;
+        }
+
+        /**
+         * Returns the number of parallel runs.
+         *
+         * @return The number of runs split into several chunks.
+         */
+        public long parallelRuns() {
+            return parallelRuns;
+        }
+
+        /**
+         * Returns the number of bytes processed.
+         *
+         * @return The number of bytes.
+         */
+        public long bytes() {
+            return bytes;
+        }
+
+        /**
+         * Returns the observed throughput of a single thread.
+         *
+         * @return The throughput in bytes per second.
+         */
+        public double throughput() {
+            return 1e9 / nanosPerByte;
+        }
+
+        /**
+         * Returns the average handoff overhead.
+         *
+         * @return The overhead in nanoseconds.
+         */
+        public double handoffNanos() {
+            return handoffNanos;
+        }
+
+        /**
+         * Returns the split threshold.
+         *
+         * @return The smallest payload in bytes processed in parallel.
+         */
+        public long threshold() {
+            return threshold;
+        }
+
+        /**
+         * Returns the last decision.
+         *
+         * @return The decision, null before the first run.
+         */
+        public Decision last() {
+            return last;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @return The string representation of the snapshot.
+         */
+        @Override
+        public String toString() {
+            return String.format("%d runs (%d parallel), %d bytes : %.2f MB/s per thread, handoff %.1f us, threshold %d bytes, last %s",
+                    runs, parallelRuns, bytes, throughput() / 1e6, handoffNanos / 1e3, threshold, last);
+        }
+
+    }
+
+    /**
+     * Measurements and decisions of a pair of engine and mode.
+     */
+    private final class Profile {
+
+        /**
+         * The average cost of a byte in nanoseconds, NaN until calibrated.
+         */
+        private double nanosPerByte = Double.NaN;
+
+        /**
+         * The average handoff overhead in nanoseconds.
+         */
+        private double handoffNanos = baseHandoffNanos;
+
+        /**
+         * The number of runs.
+         */
+        private long runs;
+
+        /**
+         * The number of parallel runs.
+         */
+        private long parallelRuns;
+
+        /**
+         * The number of bytes processed.
+         */
+        private long bytes;
+
+        /**
+         * The last decision.
+         */
+        private Decision last;
+
+        /**
+         * Returns the size of the smallest worthwhile chunk.
+         *
+         * @param unit The size in bytes of the smallest range the mode can process on its own.
+         * @return The size in bytes, a multiple of the unit.
+         */
+        private synchronized long minChunkSize(int unit) {
+            double size = Math.ceil(OVERHEAD_RATIO * handoffNanos / nanosPerByte);
+
+            return Math.max(unit, roundUp((long) Math.min(size, Integer.MAX_VALUE), unit));
+        }
+
+        /**
+         * Decides how to process a payload.
+         *
+         * @param size The size in bytes of the payload.
+         * @param unit The size in bytes of the smallest range the mode can process on its own.
+         * @return The decision.
+         */
+        private Decision decide(long size, int unit) {
+            int parallelism = Double.isNaN(calibration()) ? 1 : (int) Math.min(maxParallelism, size / minChunkSize(unit));
+
+            if (parallelism <= 1) {
+                return new Decision(1, size);
+            }
+
+            return new Decision(parallelism, roundUp((size + parallelism - 1) / parallelism, unit));
+        }
+
+        /**
+         * Returns the average cost of a byte.
+         *
+         * @return The cost in nanoseconds, NaN until calibrated.
+         */
+        private synchronized double calibration() {
+            return nanosPerByte;
+        }
+
+        /**
+         * Records a run.
+         *
+         * @param decision     The decision.
+         * @param size         The size in bytes of the payload.
+         * @param workNanos    The time spent transforming, summed over the chunks, in nanoseconds.
+         * @param handoffNanos The observed handoff overhead in nanoseconds, negative if none.
+         * @return Whether the handoff overhead should be probed again.
+         */
+        private synchronized boolean record(Decision decision, long size, long workNanos, double handoffNanos) {
+            if (decision.isParallel() || size >= MIN_SAMPLE_SIZE || Double.isNaN(nanosPerByte)) {
+                nanosPerByte = smooth(nanosPerByte, Math.max(workNanos, 1) / (double) Math.max(size, 1));
+            }
+
+            if (handoffNanos >= 0) {
+                this.handoffNanos = smooth(this.handoffNanos, handoffNanos);
+            }
+
+            if (decision.isParallel()) {
+                ++parallelRuns;
+            }
+
+            bytes += size;
+            last = decision;
+
+            return ++runs % PROBE_INTERVAL == 0;
+        }
+
+        /**
+         * Takes a snapshot of the profile.
+         *
+         * @return The snapshot.
+         */
+        private synchronized Metrics metrics() {
+            long threshold = Double.isNaN(nanosPerByte) || maxParallelism <= 1 ? Long.MAX_VALUE : 2 * minChunkSize(1);
+
+            return new Metrics(runs, parallelRuns, bytes, nanosPerByte, handoffNanos, threshold, last);
+        }
+
+    }
+
+    /**
+     * The pool running the chunks.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * The maximum number of chunks run concurrently.
+     */
+    private final int maxParallelism;
+
+    /**
+     * The handoff overhead probed at construction, in nanoseconds.
+     */
+    private final double baseHandoffNanos;
+
+    /**
+     * The profiles, by engine and mode.
+     */
+    private final Map<String, Profile> profiles = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a controller running chunks on the common pool, the calling thread included.
+     */
+    public ParallelismController() {
+        this(ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism() + 1);
+    }
+
+    /**
+     * Constructs a controller running chunks on a pool.
+     *
+     * @param pool           The pool running the chunks.
+     * @param maxParallelism The maximum number of chunks run concurrently.
+     */
+    public ParallelismController(ForkJoinPool pool, int maxParallelism) {
+        if (maxParallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + maxParallelism);
+        }
+
+        this.pool = pool;
+        this.maxParallelism = maxParallelism;
+        this.baseHandoffNanos = probe();
+    }
+
+    /**
+     * Returns the controller shared by the batch methods of the engines and modes, running chunks on the
+     * common pool.
+     *
+     * @return The shared controller.
+     */
+    public static ParallelismController common() {
+        return Common.INSTANCE;
+    }
+
+    /**
+     * Decides how to process a payload with an engine in a mode, without running anything.
+     *
+     * @param engine The engine.
+     * @param mode   The mode of operation, such as {@code "CTR"}.
+     * @param size   The size in bytes of the payload.
+     * @param unit   The size in bytes of the smallest range the mode can process on its own.
+     * @return The decision, sequential until the pair is calibrated.
+     */
+    public Decision decide(Class<?> engine, String mode, long size, int unit) {
+        return profile(engine, mode).decide(size, unit);
+    }
+
+    /**
+     * Transforms in place the remaining bytes of a payload, on the calling thread or in parallel chunks.
+     * The position and limit of the payload are left unchanged.
+     *
+     * @param engine    The engine used by the transformation.
+     * @param mode      The mode of operation, such as {@code "CTR"}.
+     * @param payload   The payload.
+     * @param offset    The offset of the payload in the stream, a multiple of the unit.
+     * @param unit      The size in bytes of the smallest range the mode can process on its own.
+     * @param transform The transformation, thread safe.
+     * @return The decision taken for the payload, after calibration if any.
+     * @see CipherPipeline.Transform
+     */
+    public Decision process(Class<?> engine, String mode, ByteBuffer payload, long offset, int unit, CipherPipeline.Transform transform) {
+        if (unit < 1 || offset % unit != 0) {
+            throw new IllegalArgumentException("Offset must be a multiple of the unit " + unit + ": " + offset);
+        }
+
+        ByteBuffer rest = payload.slice();
+
+        return execute(profile(engine, mode), rest.remaining(), 1, unit,
+                (start, end) -> transform.apply(offset + start, rest.slice((int) start, (int) (end - start))));
+    }
+
+    /**
+     * Runs a task over a batch of independent items, on the calling thread or in parallel ranges of items.
+     *
+     * @param engine   The engine used by the task.
+     * @param mode     The operation, such as {@code "KW"}.
+     * @param count    The number of items.
+     * @param itemSize The average size in bytes of an item, with which the cost of the items is measured.
+     * @param unit     The number of items of the smallest range handed to a thread.
+     * @param task     The task, thread safe.
+     * @return The decision taken for the batch, after calibration if any.
+     */
+    public Decision forEach(Class<?> engine, String mode, long count, int itemSize, int unit, Task task) {
+        if (itemSize < 1 || unit < 1) {
+            throw new IllegalArgumentException("Item size and unit must be positive: " + itemSize + ", " + unit);
+        }
+
+        return execute(profile(engine, mode), count, itemSize, unit, task);
+    }
+
+    /**
+     * Returns a snapshot of the measurements and decisions of every pair of engine and mode.
+     *
+     * @return The snapshots, by fully qualified engine class name and mode as {@code engine/mode}, sorted.
+     */
+    public Map<String, Metrics> metrics() {
+        Map<String, Metrics> metrics = new TreeMap<>();
+        profiles.forEach((key, profile) -> metrics.put(key, profile.metrics()));
+
+        return Collections.unmodifiableMap(metrics);
+    }
+
+    /**
+     * Runs a task over items, calibrating the pair on a prefix first if needed.
+     *
+     * @param profile  The profile of the pair.
+     * @param count    The number of items.
+     * @param itemSize The size in bytes of an item.
+     * @param unit     The number of items of the smallest range the task can process on its own.
+     * @param task     The task.
+     * @return The decision taken for the items after the prefix.
+     */
+    private Decision execute(Profile profile, long count, int itemSize, int unit, Task task) {
+        if (count == 0) {
+            return new Decision(1, 0);
+        }
+
+        long start = 0;
+        long prefix = roundUp((CALIBRATION_SIZE + itemSize - 1) / itemSize, unit);
+
+        if (Double.isNaN(profile.calibration()) && count > prefix) {
+            run(profile, 0, prefix, itemSize, new Decision(1, prefix * itemSize), task);
+            start = prefix;
+        }
+
+        return run(profile, start, count, itemSize, profile.decide((count - start) * itemSize, unit * itemSize), task);
+    }
+
+    /**
+     * Runs a decision over a range of items and records its measurements.
+     *
+     * @param profile  The profile of the pair.
+     * @param start    The index of the first item.
+     * @param end      The index following the last item.
+     * @param itemSize The size in bytes of an item.
+     * @param decision The decision, whose chunk size is a multiple of the item size.
+     * @param task     The task.
+     * @return The decision.
+     */
+    private Decision run(Profile profile, long start, long end, int itemSize, Decision decision, Task task) {
+        long begin = System.nanoTime();
+        long work;
+        double handoff = -1;
+
+        if (!decision.isParallel()) {
+            task.apply(start, end);
+            work = System.nanoTime() - begin;
+        } else {
+            AtomicLong total = new AtomicLong();
+            AtomicLong slowest = new AtomicLong();
+            long chunk = decision.chunkSize() / itemSize;
+            int chunks = (int) ((end - start + chunk - 1) / chunk);
+
+            Runnable parallel = () -> IntStream.range(0, chunks).parallel().forEach(index -> {
+                long from = start + index * chunk;
+                long begun = System.nanoTime();
+                task.apply(from, Math.min(end, from + chunk));
+                long elapsed = System.nanoTime() - begun;
+
+                total.addAndGet(elapsed);
+                slowest.accumulateAndGet(elapsed, Math::max);
+            });
+
+            if (pool == ForkJoinPool.commonPool()) {
+                parallel.run();
+            } else {
+                pool.submit(parallel).join();
+            }
+
+            work = total.get();
+            handoff = Math.max(0, System.nanoTime() - begin - slowest.get());
+        }
+
+        if (profile.record(decision, (end - start) * itemSize, work, handoff)) {
+            double probed = probe();
+
+            synchronized (profile) {
+                profile.handoffNanos = smooth(profile.handoffNanos, probed);
+            }
+        }
+
+        return decision;
+    }
+
+    /**
+     * Returns the profile of a pair of engine and mode, creating it if needed.
+     *
+     * @param engine The engine.
+     * @param mode   The mode of operation.
+     * @return The profile.
+     */
+    private Profile profile(Class<?> engine, String mode) {
+        return profiles.computeIfAbsent(engine.getName() + "/" + mode, key -> new Profile());
+    }
+
+    /**
+     * Measures the average round trip of an empty task through the pool.
+     *
+     * @return The overhead in nanoseconds.
+     */
+    private double probe() {
+        pool.submit(() -> {
+        }).join();
+
+        long begin = System.nanoTime();
+
+        for (int i = 0; i < PROBES; ++i) {
+            pool.submit(() -> {
+            }).join();
+        }
+
+        return (System.nanoTime() - begin) / (double) PROBES;
+    }
+
+    /**
+     * Returns the average size of a batch of items, as expected by {@link #forEach(Class, String, long, int, int, Task)}.
+     *
+     * @param items The items.
+     * @return The average size in bytes of an item, at least 1.
+     */
+    public static int averageSize(byte[][] items) {
+        long total = 0;
+
+        for (byte[] item : items) {
+            total += item.length;
+        }
+
+        return (int) Math.max(1, total / Math.max(1, items.length));
+    }
+
+    /**
+     * Adds a sample to a moving average.
+     *
+     * @param average The average, NaN if there is no sample yet.
+     * @param sample  The sample.
+     * @return The new average.
+     */
+    private static double smooth(double average, double sample) {
+        return Double.isNaN(average) ? sample : average + SMOOTHING * (sample - average);
+    }
+
+    /**
+     * Rounds a size up to a multiple of the unit.
+     *
+     * @param size The size.
+     * @param unit The unit.
+     * @return The smallest multiple of the unit not below the size.
+     */
+    private static long roundUp(long size, int unit) {
+        return (size + unit - 1) / unit * unit;
+    }
+
+    /**
+     * Encrypts payloads of growing sizes in CTR mode with the State-based and the table-driven engines,
+     * printing the decision and throughput of each size, then the metrics of both pairs.
+     *
+     * @param args Command-line arguments: optional largest payload size in bytes for the table-driven engine.
+     */
+    public static void main(String[] args) {
+        int largest = args.length > 0 ? Integer.parseInt(args[0]) : 16 << 20;
+
+        SecureRandom random = new SecureRandom();
+        byte[] key = new byte[AES.BLOCK_SIZE];
+        byte[] counter = new byte[AES.BLOCK_SIZE];
+        random.nextBytes(key);
+        random.nextBytes(counter);
+
+        ParallelismController controller = new ParallelismController();
+        CTR[] modes = {new CTR(new AES(new Block(key)), counter), new CTR(new TableAES(key), counter)};
+        int[] limits = {256 * 1024, largest};
+
+        for (int round = 0; round < 3; ++round) {
+            for (int m = 0; m < modes.length; ++m) {
+                for (int size = 256; size <= limits[m]; size <<= 2) {
+                    ByteBuffer payload = ByteBuffer.allocate(size);
+
+                    long begin = System.nanoTime();
+                    Decision decision = modes[m].process(0, payload, controller);
+                    double seconds = (System.nanoTime() - begin) / 1e9;
+
+                    if (round == 2) {
+                        System.out.printf("%-8s %10d bytes : %-22s %8.2f MB/s%n", m == 0 ? "AES" : "TableAES",
+                                size, decision, size / seconds / 1e6);
+                    }
+                }
+            }
+        }
+
+        controller.metrics().forEach((pair, metrics) -> System.out.println(pair + " : " + metrics));
+    }
+
+}
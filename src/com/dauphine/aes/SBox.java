@@ -40,7 +40,17 @@ public class SBox {
     public Block cipher(Block block) {
         int value = matrix[block.rowValue()][block.columnValue()];
 
-        return new Block(block.bits.length, value);
+        return new Block(block.length(), value);
+    }
+
+    /**
+     * Applies the S-box transformation to the specified byte value.
+     *
+     * @param value The byte value to be transformed, in [0, 255].
+     * @return The substituted byte value.
+     */
+    public int cipher(int value) {
+        return matrix[value >>> 4][value & 0x0F];
     }
 
     /**
@@ -0,0 +1,329 @@
+package com.dauphine.aes;
+
+import javax.crypto.AEADBadTagException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * <p>
+ * Implementation of the Synthetic Initialization Vector (SIV) mode of deterministic authenticated
+ * encryption (RFC 5297). This class provides one-shot methods for encryption and decryption of a
+ * plain text bound to a vector of associated data components, and batch methods for many small records.
+ * </p>
+ *
+ * <p>
+ * The synthetic initialization vector is the S2V of the associated data and the plain text, computed
+ * with {@link CMAC} under the first key; it is then used as the initial counter of a {@link CTR} mode
+ * under the second key. The CMACs of the associated data components do not depend on each other, so
+ * they are computed in parallel when there are at least {@value #PARALLEL_COMPONENTS} of them, and only
+ * folded in order. A nonce, if any, is passed as the last associated data component. The records of a batch
+ * are spread on the pool of a {@link ParallelismController}, unless the batch is too small to pay off.
+ * </p>
+ *
+ * @author Nelson PROIA {@literal <nelson.proia@dauphine.eu>}
+ * @see BlockCipher
+ * @see CMAC
+ * @see CTR
+ */
+public class SIV {
+
+    /**
+     * The maximum number of associated data components (RFC 5297, section 7).
+     */
+    public final static int MAX_COMPONENTS = 126;
+
+    /**
+     * The minimum number of associated data components whose CMACs are computed in parallel.
+     */
+    private final static int PARALLEL_COMPONENTS = 4;
+
+    /**
+     * The CMAC computing the synthetic initialization vector.
+     *
+     * @see CMAC
+     */
+    private final CMAC mac;
+
+    /**
+     * The block cipher of the CTR mode.
+     *
+     * @see BlockCipher
+     */
+    private final BlockCipher cipher;
+
+    /**
+     * The controller splitting the batches.
+     *
+     * @see ParallelismController
+     */
+    private final ParallelismController controller;
+
+    /**
+     * The CMAC of the zero block, first value of S2V.
+     */
+    private final byte[] zero;
+
+    /**
+     * Constructs an SIV mode on top of the given block ciphers, its batches being split by the shared controller.
+     *
+     * @param macCipher The block cipher keyed with the first key, used by S2V.
+     * @param cipher    The block cipher keyed with the second key, used by CTR.
+     * @see BlockCipher
+     */
+    public SIV(BlockCipher macCipher, BlockCipher cipher) {
+        this(macCipher, cipher, ParallelismController.common());
+    }
+
+    /**
+     * Constructs an SIV mode on top of the given block ciphers.
+     *
+     * @param macCipher  The block cipher keyed with the first key, used by S2V.
+     * @param cipher     The block cipher keyed with the second key, used by CTR.
+     * @param controller The controller splitting the batches.
+     * @see BlockCipher
+     * @see ParallelismController
+     */
+    public SIV(BlockCipher macCipher, BlockCipher cipher, ParallelismController controller) {
+        this.mac = new CMAC(macCipher);
+        this.cipher = cipher;
+        this.controller = controller;
+        this.zero = mac.mac(new byte[AES.BLOCK_SIZE]);
+    }
+
+    /**
+     * Constructs an AES-SIV mode from a double length key.
+     *
+     * @param key The {@code 2 *} {@value AES#BLOCK_SIZE} bytes of the key: S2V key then CTR key.
+     * @see AES
+     */
+    public SIV(byte[] key) {
+        this(half(key, 0), half(key, 1));
+    }
+
+    /**
+     * Encrypts and authenticates the given plain text.
+     *
+     * @param plain          The plain text.
+     * @param associatedData The associated data components, the nonce being the last one if any.
+     * @return The {@value AES#BLOCK_SIZE} bytes of the synthetic initialization vector followed by the cipher text.
+     */
+    public byte[] encrypt(byte[] plain, byte[]... associatedData) {
+        byte[] iv = s2v(associatedData, plain);
+        byte[] output = new byte[AES.BLOCK_SIZE + plain.length];
+
+        System.arraycopy(iv, 0, output, 0, AES.BLOCK_SIZE);
+        counter(iv).process(0, plain, 0, output, AES.BLOCK_SIZE, plain.length);
+
+        return output;
+    }
+
+    /**
+     * Decrypts and verifies the given cipher text.
+     *
+     * @param input          The synthetic initialization vector followed by the cipher text.
+     * @param associatedData The associated data components, the nonce being the last one if any.
+     * @return The plain text.
+     * @throws AEADBadTagException If the synthetic initialization vector does not match.
+     */
+    public byte[] decrypt(byte[] input, byte[]... associatedData) throws AEADBadTagException {
+        if (input.length < AES.BLOCK_SIZE) {
+            throw new AEADBadTagException("Input shorter than the synthetic initialization vector");
+        }
+
+        byte[] iv = Arrays.copyOf(input, AES.BLOCK_SIZE);
+        byte[] plain = new byte[input.length - AES.BLOCK_SIZE];
+        counter(iv).process(0, input, AES.BLOCK_SIZE, plain, 0, plain.length);
+
+        try {
+            GCM.verify(s2v(associatedData, plain), iv);
+        } catch (AEADBadTagException e) {
+            Arrays.fill(plain, (byte) 0);
+            throw e;
+        }
+
+        return plain;
+    }
+
+    /**
+     * Encrypts a batch of records sharing the same associated data, in parallel if the batch is large enough.
+     *
+     * @param plains         The plain texts of the records.
+     * @param associatedData The associated data components of every record.
+     * @return The outputs of {@link #encrypt(byte[], byte[]...)}, in the order of the records.
+     */
+    public byte[][] encryptAll(byte[][] plains, byte[]... associatedData) {
+        byte[][] outputs = new byte[plains.length][];
+
+        controller.forEach(cipher.getClass(), "SIV", plains.length, ParallelismController.averageSize(plains), 1, (start, end) -> {
+            for (int i = (int) start; i < end; ++i) {
+                outputs[i] = encrypt(plains[i], associatedData);
+            }
+        });
+
+        return outputs;
+    }
+
+    /**
+     * Decrypts a batch of records sharing the same associated data, in parallel if the batch is large enough.
+     *
+     * @param inputs         The outputs of {@link #encrypt(byte[], byte[]...)} of the records.
+     * @param associatedData The associated data components of every record.
+     * @return The plain texts, in the order of the records.
+     * @throws AEADBadTagException If any record is not authentic.
+     */
+    public byte[][] decryptAll(byte[][] inputs, byte[]... associatedData) throws AEADBadTagException {
+        byte[][] plains = new byte[inputs.length][];
+
+        try {
+            controller.forEach(cipher.getClass(), "SIV", inputs.length, ParallelismController.averageSize(inputs), 1, (start, end) -> {
+                for (int i = (int) start; i < end; ++i) {
+                    try {
+                        plains[i] = decrypt(inputs[i], associatedData);
+                    } catch (AEADBadTagException e) {
+                        throw new CompletionException(e);
+                    }
+                }
+            });
+        } catch (CompletionException e) {
+            throw new AEADBadTagException(e.getCause().getMessage());
+        }
+
+        return plains;
+    }
+
+    /**
+     * Computes the S2V of the associated data components and the plain text (RFC 5297, section 2.4).
+     *
+     * @param associatedData The associated data components.
+     * @param plain          The plain text.
+     * @return The {@value AES#BLOCK_SIZE} bytes of the synthetic initialization vector.
+     */
+    private byte[] s2v(byte[][] associatedData, byte[] plain) {
+        if (associatedData.length > MAX_COMPONENTS) {
+            throw new IllegalArgumentException("At most " + MAX_COMPONENTS + " associated data components");
+        }
+
+        byte[][] macs = new byte[associatedData.length][];
+
+        if (associatedData.length >= PARALLEL_COMPONENTS) {
+            CompletableFuture<?>[] futures = new CompletableFuture<?>[associatedData.length];
+
+            for (int i = 0; i < associatedData.length; ++i) {
+                int component = i;
+                futures[i] = CompletableFuture.runAsync(() -> macs[component] = mac.mac(associatedData[component]));
+            }
+
+            CompletableFuture.allOf(futures).join();
+        } else {
+            for (int i = 0; i < associatedData.length; ++i) {
+                macs[i] = mac.mac(associatedData[i]);
+            }
+        }
+
+        byte[] digest = zero;
+
+        for (byte[] componentMac : macs) {
+            digest = CMAC.doubling(digest);
+
+            for (int i = 0; i < AES.BLOCK_SIZE; ++i) {
+                digest[i] ^= componentMac[i];
+            }
+        }
+
+        byte[] last;
+
+        if (plain.length >= AES.BLOCK_SIZE) {
+            last = plain.clone();
+
+            for (int i = 0; i < AES.BLOCK_SIZE; ++i) {
+                last[plain.length - AES.BLOCK_SIZE + i] ^= digest[i];
+            }
+        } else {
+            last = CMAC.doubling(digest);
+
+            for (int i = 0; i < AES.BLOCK_SIZE; ++i) {
+                last[i] ^= i < plain.length ? plain[i] : (i == plain.length ? (byte) 0x80 : 0);
+            }
+        }
+
+        return mac.mac(last);
+    }
+
+    /**
+     * Returns the AES keyed with one half of a double length key.
+     *
+     * @param key  The {@code 2 *} {@value AES#BLOCK_SIZE} bytes of the key.
+     * @param half The index of the half, 0 or 1.
+     * @return The AES block cipher.
+     * @see AES
+     */
+    private static AES half(byte[] key, int half) {
+        if (key.length != 2 * AES.BLOCK_SIZE) {
+            throw new IllegalArgumentException("AES-SIV key must be " + 2 * AES.BLOCK_SIZE + " bytes long");
+        }
+
+        return new AES(new Block(Arrays.copyOfRange(key, half * AES.BLOCK_SIZE, (half + 1) * AES.BLOCK_SIZE)));
+    }
+
+    /**
+     * Returns the CTR mode of the given synthetic initialization vector, whose bits 63 and 31 are cleared.
+     *
+     * @param iv The synthetic initialization vector.
+     * @return The CTR mode.
+     * @see CTR
+     */
+    private CTR counter(byte[] iv) {
+        byte[] counter = iv.clone();
+        counter[8] &= 0x7F;
+        counter[12] &= 0x7F;
+
+        return new CTR(cipher, counter);
+    }
+
+    /**
+     * Measures the throughput of encrypting records one by one with GCM and as a batch with SIV.
+     *
+     * @param args Command-line arguments: optional number of records and record size in bytes.
+     * @throws AEADBadTagException If a batch does not decrypt back, which would be a bug.
+     */
+    public static void main(String[] args) throws AEADBadTagException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+
+        SecureRandom random = new SecureRandom();
+        byte[] key = new byte[2 * AES.BLOCK_SIZE];
+        byte[] header = "records".getBytes();
+        byte[][] records = new byte[count][size];
+        random.nextBytes(key);
+
+        for (byte[] record : records) {
+            random.nextBytes(record);
+        }
+
+        GCM gcm = new GCM(new AES(new Block(Arrays.copyOf(key, AES.BLOCK_SIZE))));
+        byte[] iv = new byte[GCM.IV_LENGTH];
+        long begin = System.nanoTime();
+
+        for (byte[] record : records) {
+            random.nextBytes(iv);
+            gcm.encrypt(iv, header, record);
+        }
+
+        double gcmSeconds = (System.nanoTime() - begin) / 1e9;
+
+        SIV siv = new SIV(key);
+        begin = System.nanoTime();
+        byte[][] encrypted = siv.encryptAll(records, header);
+        double sivSeconds = (System.nanoTime() - begin) / 1e9;
+
+        if (!Arrays.deepEquals(records, siv.decryptAll(encrypted, header))) {
+            throw new IllegalStateException("SIV batch does not decrypt back");
+        }
+
+        System.out.printf("GCM per record : %10.1f records/s%n", count / gcmSeconds);
+        System.out.printf("SIV batch      : %10.1f records/s%n", count / sivSeconds);
+    }
+
+}
@@ -147,7 +147,7 @@ public class State {
 
         for (int i = 0; i < AES.NUMBER_BLOCKS; ++i) {
             for (int j = 0; j < AES.NUMBER_BLOCKS; ++j) {
-                newState.bytes[i][(j + i) % AES.NUMBER_BLOCKS] = bytes[i][j];
+                newState.bytes[i][(j - i + AES.NUMBER_BLOCKS) % AES.NUMBER_BLOCKS] = bytes[i][j];
             }
         }
 
@@ -166,7 +166,7 @@ public class State {
 
         for (int i = 0; i < AES.NUMBER_BLOCKS; ++i) {
             for (int j = 0; j < AES.NUMBER_BLOCKS; ++j) {
-                newState.bytes[i][(j - i + AES.NUMBER_BLOCKS) % AES.NUMBER_BLOCKS] = bytes[i][j];
+                newState.bytes[i][(j + i) % AES.NUMBER_BLOCKS] = bytes[i][j];
             }
         }
 
@@ -0,0 +1,351 @@
+package com.dauphine.aes;
+
+import javax.security.auth.Destroyable;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+/**
+ * <p>
+ * Implementation of AES on 32-bit words with combined substitution and mix columns tables (T-tables).
+ * This class provides methods for encryption (ciphering) and decryption (deciphering) of blocks held in
+ * byte arrays or in pairs of longs, without allocating anything per block.
+ * </p>
+ *
+ * <p>
+ * Each round is sixteen table lookups and XORs. The T-tables are assembled at class initialization from
+ * the generated constants of {@link Tables}, with shifts and ORs only, so initialization is cheap and can
+ * run at image build time. The round keys are expanded once at construction, and decryption uses the
+ * equivalent inverse cipher like {@link AES}. As in every table-driven engine, the
+ * lookups are indexed by secret data, so their timing depends on the cache. Instances are thread safe,
+ * and {@link #destroy()} zeroizes the round keys of an instance no longer used.
+ * </p>
+ *
+ * @author Nelson PROIA {@literal <nelson.proia@dauphine.eu>}
+ * @see AES
+ * @see BlockCipher
+ * @see ColumnCipher
+ */
+public class TableAES implements BlockCipher, Destroyable {
+
+    /**
+     * The number of 32-bit words of the expanded key schedule.
+     */
+    private final static int SCHEDULE_WORDS = AES.NUMBER_ROUNDS * AES.NUMBER_BLOCKS;
+
+    /**
+     * The S-box, indexed by byte value.
+     */
+    private final static int[] S_BOX = new int[256];
+
+    /**
+     * The inverse S-box, indexed by byte value.
+     */
+    private final static int[] S_BOX_INVERT = new int[256];
+
+    /**
+     * The encryption tables: S-box then mix columns, rotated by 0, 8, 16 and 24 bits.
+     */
+    private final static int[][] ENCRYPTION_TABLES = new int[4][256];
+
+    /**
+     * The decryption tables: inverse S-box then inverse mix columns, rotated by 0, 8, 16 and 24 bits.
+     */
+    private final static int[][] DECRYPTION_TABLES = new int[4][256];
+
+    static {
+        for (int value = 0; value < 256; ++value) {
+            int s = Tables.S_BOX[value] & 0xFF;
+            int t = Tables.S_BOX_INVERT[value] & 0xFF;
+
+            S_BOX[value] = s;
+            S_BOX_INVERT[value] = t;
+            ENCRYPTION_TABLES[0][value] = (Tables.MULTIPLY_2[s] & 0xFF) << 24 | s << 16 | s << 8 | (Tables.MULTIPLY_3[s] & 0xFF);
+            DECRYPTION_TABLES[0][value] = (Tables.MULTIPLY_14[t] & 0xFF) << 24 | (Tables.MULTIPLY_9[t] & 0xFF) << 16
+                    | (Tables.MULTIPLY_13[t] & 0xFF) << 8 | (Tables.MULTIPLY_11[t] & 0xFF);
+
+            for (int table = 1; table < 4; ++table) {
+                ENCRYPTION_TABLES[table][value] = Integer.rotateRight(ENCRYPTION_TABLES[0][value], 8 * table);
+                DECRYPTION_TABLES[table][value] = Integer.rotateRight(DECRYPTION_TABLES[0][value], 8 * table);
+            }
+        }
+    }
+
+    /**
+     * The encryption round keys.
+     */
+    private final int[] keys = new int[SCHEDULE_WORDS];
+
+    /**
+     * The decryption round keys of the equivalent inverse cipher, in decryption order.
+     */
+    private final int[] decipherKeys = new int[SCHEDULE_WORDS];
+
+    /**
+     * Whether the round keys have been wiped.
+     */
+    private volatile boolean destroyed;
+
+    /**
+     * Constructs a TableAES instance with the given key.
+     *
+     * @param key The {@value AES#BLOCK_SIZE} bytes of the key.
+     */
+    public TableAES(byte[] key) {
+        if (key.length != AES.BLOCK_SIZE) {
+            throw new IllegalArgumentException("Key must be " + AES.BLOCK_SIZE + " bytes: " + key.length);
+        }
+
+        for (int i = 0; i < AES.NUMBER_BLOCKS; ++i) {
+            keys[i] = getInt(key, 4 * i);
+        }
+
+        int roundConstant = 1;
+
+        for (int i = AES.NUMBER_BLOCKS; i < SCHEDULE_WORDS; ++i) {
+            int temp = keys[i - 1];
+
+            if (i % AES.NUMBER_BLOCKS == 0) {
+                temp = substituteWord(Integer.rotateLeft(temp, 8)) ^ (roundConstant << 24);
+                roundConstant = Tables.MULTIPLY_2[roundConstant] & 0xFF;
+            }
+
+            keys[i] = keys[i - AES.NUMBER_BLOCKS] ^ temp;
+        }
+
+        for (int round = 0; round < AES.NUMBER_ROUNDS; ++round) {
+            for (int i = 0; i < AES.NUMBER_BLOCKS; ++i) {
+                int word = keys[(AES.NUMBER_ROUNDS - 1 - round) * AES.NUMBER_BLOCKS + i];
+                boolean inner = round > 0 && round < AES.NUMBER_ROUNDS - 1;
+
+                decipherKeys[round * AES.NUMBER_BLOCKS + i] = inner ? mixColumnsInvert(word) : word;
+            }
+        }
+    }
+
+    /**
+     * Constructs a TableAES instance with the given key.
+     *
+     * @param key The Block representing the key.
+     * @see Block
+     */
+    public TableAES(Block key) {
+        this(key.toBytes());
+    }
+
+    /**
+     * Ciphers the given plain text bytes.
+     *
+     * @param plain The {@value AES#BLOCK_SIZE} bytes of the plain block.
+     * @return The {@value AES#BLOCK_SIZE} bytes of the encrypted block.
+     */
+    @Override
+    public byte[] cipher(byte[] plain) {
+        long[] block = {getLong(plain, 0), getLong(plain, Long.BYTES)};
+        cipher(block[0], block[1], block, 0);
+
+        return toBytes(block);
+    }
+
+    /**
+     * Deciphers the given cipher text bytes.
+     *
+     * @param cipher The {@value AES#BLOCK_SIZE} bytes of the cipher block.
+     * @return The {@value AES#BLOCK_SIZE} bytes of the decrypted block.
+     */
+    @Override
+    public byte[] decipher(byte[] cipher) {
+        long[] block = {getLong(cipher, 0), getLong(cipher, Long.BYTES)};
+        decipher(block[0], block[1], block, 0);
+
+        return toBytes(block);
+    }
+
+    /**
+     * Ciphers a block given as two big-endian longs into two longs of the output array.
+     *
+     * @param high   The first eight bytes of the plain block.
+     * @param low    The last eight bytes of the plain block.
+     * @param output The array receiving the encrypted block.
+     * @param offset The index of the first long of the encrypted block.
+     */
+    public void cipher(long high, long low, long[] output, int offset) {
+        int[][] t = ENCRYPTION_TABLES;
+        int s0 = (int) (high >>> 32) ^ keys[0], s1 = (int) high ^ keys[1];
+        int s2 = (int) (low >>> 32) ^ keys[2], s3 = (int) low ^ keys[3];
+
+        for (int k = AES.NUMBER_BLOCKS; k < SCHEDULE_WORDS - AES.NUMBER_BLOCKS; k += AES.NUMBER_BLOCKS) {
+            int r0 = t[0][s0 >>> 24] ^ t[1][(s1 >>> 16) & 0xFF] ^ t[2][(s2 >>> 8) & 0xFF] ^ t[3][s3 & 0xFF] ^ keys[k];
+            int r1 = t[0][s1 >>> 24] ^ t[1][(s2 >>> 16) & 0xFF] ^ t[2][(s3 >>> 8) & 0xFF] ^ t[3][s0 & 0xFF] ^ keys[k + 1];
+            int r2 = t[0][s2 >>> 24] ^ t[1][(s3 >>> 16) & 0xFF] ^ t[2][(s0 >>> 8) & 0xFF] ^ t[3][s1 & 0xFF] ^ keys[k + 2];
+            int r3 = t[0][s3 >>> 24] ^ t[1][(s0 >>> 16) & 0xFF] ^ t[2][(s1 >>> 8) & 0xFF] ^ t[3][s2 & 0xFF] ^ keys[k + 3];
+
+            s0 = r0;
+            s1 = r1;
+            s2 = r2;
+            s3 = r3;
+        }
+
+        int k = SCHEDULE_WORDS - AES.NUMBER_BLOCKS;
+        int r0 = finalWord(S_BOX, s0, s1, s2, s3) ^ keys[k];
+        int r1 = finalWord(S_BOX, s1, s2, s3, s0) ^ keys[k + 1];
+        int r2 = finalWord(S_BOX, s2, s3, s0, s1) ^ keys[k + 2];
+        int r3 = finalWord(S_BOX, s3, s0, s1, s2) ^ keys[k + 3];
+
+        output[offset] = (long) r0 << 32 | (r1 & 0xFFFFFFFFL);
+        output[offset + 1] = (long) r2 << 32 | (r3 & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Deciphers a block given as two big-endian longs into two longs of the output array.
+     *
+     * @param high   The first eight bytes of the cipher block.
+     * @param low    The last eight bytes of the cipher block.
+     * @param output The array receiving the decrypted block.
+     * @param offset The index of the first long of the decrypted block.
+     */
+    public void decipher(long high, long low, long[] output, int offset) {
+        int[][] t = DECRYPTION_TABLES;
+        int[] d = decipherKeys;
+        int s0 = (int) (high >>> 32) ^ d[0], s1 = (int) high ^ d[1];
+        int s2 = (int) (low >>> 32) ^ d[2], s3 = (int) low ^ d[3];
+
+        for (int k = AES.NUMBER_BLOCKS; k < SCHEDULE_WORDS - AES.NUMBER_BLOCKS; k += AES.NUMBER_BLOCKS) {
+            int r0 = t[0][s0 >>> 24] ^ t[1][(s3 >>> 16) & 0xFF] ^ t[2][(s2 >>> 8) & 0xFF] ^ t[3][s1 & 0xFF] ^ d[k];
+            int r1 = t[0][s1 >>> 24] ^ t[1][(s0 >>> 16) & 0xFF] ^ t[2][(s3 >>> 8) & 0xFF] ^ t[3][s2 & 0xFF] ^ d[k + 1];
+            int r2 = t[0][s2 >>> 24] ^ t[1][(s1 >>> 16) & 0xFF] ^ t[2][(s0 >>> 8) & 0xFF] ^ t[3][s3 & 0xFF] ^ d[k + 2];
+            int r3 = t[0][s3 >>> 24] ^ t[1][(s2 >>> 16) & 0xFF] ^ t[2][(s1 >>> 8) & 0xFF] ^ t[3][s0 & 0xFF] ^ d[k + 3];
+
+            s0 = r0;
+            s1 = r1;
+            s2 = r2;
+            s3 = r3;
+        }
+
+        int k = SCHEDULE_WORDS - AES.NUMBER_BLOCKS;
+        int r0 = finalWord(S_BOX_INVERT, s0, s3, s2, s1) ^ d[k];
+        int r1 = finalWord(S_BOX_INVERT, s1, s0, s3, s2) ^ d[k + 1];
+        int r2 = finalWord(S_BOX_INVERT, s2, s1, s0, s3) ^ d[k + 2];
+        int r3 = finalWord(S_BOX_INVERT, s3, s2, s1, s0) ^ d[k + 3];
+
+        output[offset] = (long) r0 << 32 | (r1 & 0xFFFFFFFFL);
+        output[offset + 1] = (long) r2 << 32 | (r3 & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Zeroizes the round keys. The instance must not be used afterwards.
+     */
+    @Override
+    public void destroy() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(decipherKeys, 0);
+        destroyed = true;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return True once the round keys have been zeroized.
+     */
+    @Override
+    public boolean isDestroyed() {
+        return destroyed;
+    }
+
+    /**
+     * Computes a word of the last round, which substitutes and shifts without mixing the columns.
+     *
+     * @param sBox The S-box.
+     * @param a    The word providing the first byte.
+     * @param b    The word providing the second byte.
+     * @param c    The word providing the third byte.
+     * @param d    The word providing the fourth byte.
+     * @return The word.
+     */
+    private static int finalWord(int[] sBox, int a, int b, int c, int d) {
+        return sBox[a >>> 24] << 24 | sBox[(b >>> 16) & 0xFF] << 16 | sBox[(c >>> 8) & 0xFF] << 8 | sBox[d & 0xFF];
+    }
+
+    /**
+     * Substitutes each byte of a word with the S-box.
+     *
+     * @param word The word.
+     * @return The substituted word.
+     */
+    private static int substituteWord(int word) {
+        return finalWord(S_BOX, word, word, word, word);
+    }
+
+    /**
+     * Multiplies a column word by the inverse mix columns matrix.
+     *
+     * @param word The column word.
+     * @return The mixed column word.
+     */
+    private static int mixColumnsInvert(int word) {
+        int[][] t = DECRYPTION_TABLES;
+
+        return t[0][S_BOX[word >>> 24]] ^ t[1][S_BOX[(word >>> 16) & 0xFF]]
+                ^ t[2][S_BOX[(word >>> 8) & 0xFF]] ^ t[3][S_BOX[word & 0xFF]];
+    }
+
+    /**
+     * Reads a big-endian int.
+     *
+     * @param bytes  The array.
+     * @param offset The offset of the first byte.
+     * @return The int value.
+     */
+    private static int getInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16 | (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+    }
+
+    /**
+     * Reads a big-endian long.
+     *
+     * @param bytes  The array.
+     * @param offset The offset of the first byte.
+     * @return The long value.
+     */
+    private static long getLong(byte[] bytes, int offset) {
+        return (long) getInt(bytes, offset) << 32 | (getInt(bytes, offset + 4) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Converts a block held in two longs into its bytes.
+     *
+     * @param block The two longs of the block.
+     * @return The {@value AES#BLOCK_SIZE} bytes of the block.
+     */
+    private static byte[] toBytes(long[] block) {
+        byte[] bytes = new byte[AES.BLOCK_SIZE];
+
+        for (int i = 0; i < AES.BLOCK_SIZE; ++i) {
+            bytes[i] = (byte) (block[i / Long.BYTES] >>> (56 - 8 * (i % Long.BYTES)));
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Measures the time to the first encrypted block, for TableAES and AES, since the start of the process.
+     * Run it on a plain JVM, with an AppCDS archive and as a native image to compare their startup.
+     *
+     * @param args Command-line arguments, unused.
+     */
+    public static void main(String[] args) {
+        long entry = System.currentTimeMillis();
+        long begin = System.nanoTime();
+        byte[] block = new TableAES(new byte[AES.BLOCK_SIZE]).cipher(new byte[AES.BLOCK_SIZE]);
+        long tableNanos = System.nanoTime() - begin;
+
+        begin = System.nanoTime();
+        new AES(new Block(new byte[AES.BLOCK_SIZE])).cipher(new byte[AES.BLOCK_SIZE]);
+        long aesNanos = System.nanoTime() - begin;
+
+        ProcessHandle.current().info().startInstant().ifPresent(start ->
+                System.out.printf("Process start to main : %8d ms%n", entry - start.toEpochMilli()));
+        System.out.printf("TableAES first block  : %8.3f ms (%s)%n", tableNanos / 1e6, HexFormat.of().formatHex(block));
+        System.out.printf("AES first block       : %8.3f ms%n", aesNanos / 1e6);
+    }
+
+}
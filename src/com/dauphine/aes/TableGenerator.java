@@ -0,0 +1,166 @@
+package com.dauphine.aes;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * <p>
+ * Generator of the {@link Tables} source file, run by hand and whose output is committed.
+ * This class derives the byte lookup tables from the S-box literals of {@link AES} and the GF(2^8)
+ * arithmetic of {@link OffHeapAES}, and writes them as string constants.
+ * </p>
+ *
+ * <p>
+ * A string constant lives in the constant pool, so loading a table costs one copy instead of the
+ * thousands of bytecodes an array initializer compiles to. The strings only hold octal escapes,
+ * which keeps the generated source free of characters that Java would unescape too early.
+ * No build step runs it, so run it again whenever a table changes:
+ * {@code java com.dauphine.aes.TableGenerator src/com/dauphine/aes/Tables.java}.
+ * </p>
+ *
+ * @author Nelson PROIA {@literal <nelson.proia@dauphine.eu>}
+ * @see Tables
+ */
+final class TableGenerator {
+
+    /**
+     * The number of bytes per line of a generated string constant.
+     */
+    private final static int BYTES_PER_LINE = 16;
+
+    /**
+     * The GF(2^8) factors whose multiplication tables are generated.
+     */
+    private final static int[] FACTORS = {2, 3, 9, 11, 13, 14};
+
+    /**
+     * Prevents instantiation.
+     */
+    private TableGenerator() {
+    }
+
+    /**
+     * Writes the source of {@link Tables}.
+     *
+     * @param output The stream receiving the source.
+     */
+    static void generate(PrintStream output) {
+        output.println("package com.dauphine.aes;");
+        output.println();
+        output.println("import java.nio.charset.StandardCharsets;");
+        output.println();
+        output.println("/**");
+        output.println(" * <p>");
+        output.println(" * Precomputed lookup tables of {@link TableAES}.");
+        output.println(" * This class is generated by {@link TableGenerator}: do not edit it by hand.");
+        output.println(" * </p>");
+        output.println(" *");
+        output.println(" * <p>");
+        output.println(" * Each byte table is decoded from a string constant. Initialization only depends on these constants,");
+        output.println(" * so it is deterministic and can run at image build time ({@code --initialize-at-build-time}).");
+        output.println(" * </p>");
+        output.println(" *");
+        output.println(" * @author Nelson PROIA {@literal <nelson.proia@dauphine.eu>}");
+        output.println(" * @see TableAES");
+        output.println(" * @see TableGenerator");
+        output.println(" */");
+        output.println("final class Tables {");
+
+        field(output, "The S-box, indexed by byte value.", "S_BOX", table(AES.sBoxValues));
+        field(output, "The inverse S-box, indexed by byte value.", "S_BOX_INVERT", table(AES.sBoxInvertValues));
+
+        for (int factor : FACTORS) {
+            byte[] products = new byte[256];
+
+            for (int value = 0; value < products.length; ++value) {
+                products[value] = (byte) OffHeapAES.multiply(value, factor);
+            }
+
+            field(output, "The products by " + factor + " in GF(2^8), indexed by byte value.", "MULTIPLY_" + factor, products);
+        }
+
+        output.println();
+        output.println("    /**");
+        output.println("     * Prevents instantiation.");
+        output.println("     */");
+        output.println("    private Tables() {");
+        output.println("    }");
+        output.println();
+        output.println("    /**");
+        output.println("     * Decodes a byte table from its string constant.");
+        output.println("     *");
+        output.println("     * @param encoded The string constant, one character per byte.");
+        output.println("     * @return The byte table.");
+        output.println("     */");
+        output.println("    private static byte[] decode(String encoded) {");
+        output.println("        return encoded.getBytes(StandardCharsets.ISO_8859_1);");
+        output.println("    }");
+        output.println();
+        output.println("}");
+    }
+
+    /**
+     * Writes a table field.
+     *
+     * @param output  The stream receiving the source.
+     * @param comment The doc comment of the field.
+     * @param name    The name of the field.
+     * @param bytes   The bytes of the table.
+     */
+    private static void field(PrintStream output, String comment, String name, byte[] bytes) {
+        output.println();
+        output.println("    /**");
+        output.println("     * " + comment);
+        output.println("     */");
+        output.print("    static final byte[] " + name + " = decode(");
+
+        for (int line = 0; line < bytes.length; line += BYTES_PER_LINE) {
+            output.print(line == 0 ? "\"" : "\n            + \"");
+
+            for (int i = line; i < line + BYTES_PER_LINE; ++i) {
+                output.printf("\\%03o", bytes[i] & 0xFF);
+            }
+
+            output.print("\"");
+        }
+
+        output.println(");");
+    }
+
+    /**
+     * Flattens a 16 by 16 table into bytes.
+     *
+     * @param values The table, indexed by high then low nibble.
+     * @return The bytes, indexed by byte value.
+     */
+    private static byte[] table(int[][] values) {
+        byte[] bytes = new byte[256];
+
+        for (int value = 0; value < bytes.length; ++value) {
+            bytes[value] = (byte) values[value >>> 4][value & 0x0F];
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Generates the source of {@link Tables}.
+     *
+     * @param args Command-line arguments: optional path of the file to write, standard output otherwise.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            generate(System.out);
+            return;
+        }
+
+        try (PrintStream output = new PrintStream(Files.newOutputStream(Path.of(args[0])), false, StandardCharsets.UTF_8)) {
+            generate(output);
+        }
+    }
+
+}
@@ -0,0 +1,198 @@
+package com.dauphine.aes;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>
+ * Precomputed lookup tables of {@link TableAES}.
+ * This class is generated by {@link TableGenerator}: do not edit it by hand.
+ * </p>
+ *
+ * <p>
+ * Each byte table is decoded from a string constant. Initialization only depends on these constants,
+ * so it is deterministic and can run at image build time ({@code --initialize-at-build-time}).
+ * </p>
+ *
+ * @author Nelson PROIA {@literal <nelson.proia@dauphine.eu>}
+ * @see TableAES
+ * @see TableGenerator
+ */
+final class Tables {
+
+    /**
+     * The S-box, indexed by byte value.
+     */
+    static final byte[] S_BOX = decode("\143\174\167\173\362\153\157\305\060\001\147\053\376\327\253\166"
+            + "\312\202\311\175\372\131\107\360\255\324\242\257\234\244\162\300"
+            + "\267\375\223\046\066\077\367\314\064\245\345\361\161\330\061\025"
+            + "\004\307\043\303\030\226\005\232\007\022\200\342\353\047\262\165"
+            + "\011\203\054\032\033\156\132\240\122\073\326\263\051\343\057\204"
+            + "\123\321\000\355\040\374\261\133\152\313\276\071\112\114\130\317"
+            + "\320\357\252\373\103\115\063\205\105\371\002\177\120\074\237\250"
+            + "\121\243\100\217\222\235\070\365\274\266\332\041\020\377\363\322"
+            + "\315\014\023\354\137\227\104\027\304\247\176\075\144\135\031\163"
+            + "\140\201\117\334\042\052\220\210\106\356\270\024\336\136\013\333"
+            + "\340\062\072\012\111\006\044\134\302\323\254\142\221\225\344\171"
+            + "\347\310\067\155\215\325\116\251\154\126\364\352\145\172\256\010"
+            + "\272\170\045\056\034\246\264\306\350\335\164\037\113\275\213\212"
+            + "\160\076\265\146\110\003\366\016\141\065\127\271\206\301\035\236"
+            + "\341\370\230\021\151\331\216\224\233\036\207\351\316\125\050\337"
+            + "\214\241\211\015\277\346\102\150\101\231\055\017\260\124\273\026");
+
+    /**
+     * The inverse S-box, indexed by byte value.
+     */
+    static final byte[] S_BOX_INVERT = decode("\122\011\152\325\060\066\245\070\277\100\243\236\201\363\327\373"
+            + "\174\343\071\202\233\057\377\207\064\216\103\104\304\336\351\313"
+            + "\124\173\224\062\246\302\043\075\356\114\225\013\102\372\303\116"
+            + "\010\056\241\146\050\331\044\262\166\133\242\111\155\213\321\045"
+            + "\162\370\366\144\206\150\230\026\324\244\134\314\135\145\266\222"
+            + "\154\160\110\120\375\355\271\332\136\025\106\127\247\215\235\204"
+            + "\220\330\253\000\214\274\323\012\367\344\130\005\270\263\105\006"
+            + "\320\054\036\217\312\077\017\002\301\257\275\003\001\023\212\153"
+            + "\072\221\021\101\117\147\334\352\227\362\317\316\360\264\346\163"
+            + "\226\254\164\042\347\255\065\205\342\371\067\350\034\165\337\156"
+            + "\107\361\032\161\035\051\305\211\157\267\142\016\252\030\276\033"
+            + "\374\126\076\113\306\322\171\040\232\333\300\376\170\315\132\364"
+            + "\037\335\250\063\210\007\307\061\261\022\020\131\047\200\354\137"
+            + "\140\121\177\251\031\265\112\015\055\345\172\237\223\311\234\357"
+            + "\240\340\073\115\256\052\365\260\310\353\273\074\203\123\231\141"
+            + "\027\053\004\176\272\167\326\046\341\151\024\143\125\041\014\175");
+
+    /**
+     * The products by 2 in GF(2^8), indexed by byte value.
+     */
+    static final byte[] MULTIPLY_2 = decode("\000\002\004\006\010\012\014\016\020\022\024\026\030\032\034\036"
+            + "\040\042\044\046\050\052\054\056\060\062\064\066\070\072\074\076"
+            + "\100\102\104\106\110\112\114\116\120\122\124\126\130\132\134\136"
+            + "\140\142\144\146\150\152\154\156\160\162\164\166\170\172\174\176"
+            + "\200\202\204\206\210\212\214\216\220\222\224\226\230\232\234\236"
+            + "\240\242\244\246\250\252\254\256\260\262\264\266\270\272\274\276"
+            + "\300\302\304\306\310\312\314\316\320\322\324\326\330\332\334\336"
+            + "\340\342\344\346\350\352\354\356\360\362\364\366\370\372\374\376"
+            + "\033\031\037\035\023\021\027\025\013\011\017\015\003\001\007\005"
+            + "\073\071\077\075\063\061\067\065\053\051\057\055\043\041\047\045"
+            + "\133\131\137\135\123\121\127\125\113\111\117\115\103\101\107\105"
+            + "\173\171\177\175\163\161\167\165\153\151\157\155\143\141\147\145"
+            + "\233\231\237\235\223\221\227\225\213\211\217\215\203\201\207\205"
+            + "\273\271\277\275\263\261\267\265\253\251\257\255\243\241\247\245"
+            + "\333\331\337\335\323\321\327\325\313\311\317\315\303\301\307\305"
+            + "\373\371\377\375\363\361\367\365\353\351\357\355\343\341\347\345");
+
+    /**
+     * The products by 3 in GF(2^8), indexed by byte value.
+     */
+    static final byte[] MULTIPLY_3 = decode("\000\003\006\005\014\017\012\011\030\033\036\035\024\027\022\021"
+            + "\060\063\066\065\074\077\072\071\050\053\056\055\044\047\042\041"
+            + "\140\143\146\145\154\157\152\151\170\173\176\175\164\167\162\161"
+            + "\120\123\126\125\134\137\132\131\110\113\116\115\104\107\102\101"
+            + "\300\303\306\305\314\317\312\311\330\333\336\335\324\327\322\321"
+            + "\360\363\366\365\374\377\372\371\350\353\356\355\344\347\342\341"
+            + "\240\243\246\245\254\257\252\251\270\273\276\275\264\267\262\261"
+            + "\220\223\226\225\234\237\232\231\210\213\216\215\204\207\202\201"
+            + "\233\230\235\236\227\224\221\222\203\200\205\206\217\214\211\212"
+            + "\253\250\255\256\247\244\241\242\263\260\265\266\277\274\271\272"
+            + "\373\370\375\376\367\364\361\362\343\340\345\346\357\354\351\352"
+            + "\313\310\315\316\307\304\301\302\323\320\325\326\337\334\331\332"
+            + "\133\130\135\136\127\124\121\122\103\100\105\106\117\114\111\112"
+            + "\153\150\155\156\147\144\141\142\163\160\165\166\177\174\171\172"
+            + "\073\070\075\076\067\064\061\062\043\040\045\046\057\054\051\052"
+            + "\013\010\015\016\007\004\001\002\023\020\025\026\037\034\031\032");
+
+    /**
+     * The products by 9 in GF(2^8), indexed by byte value.
+     */
+    static final byte[] MULTIPLY_9 = decode("\000\011\022\033\044\055\066\077\110\101\132\123\154\145\176\167"
+            + "\220\231\202\213\264\275\246\257\330\321\312\303\374\365\356\347"
+            + "\073\062\051\040\037\026\015\004\163\172\141\150\127\136\105\114"
+            + "\253\242\271\260\217\206\235\224\343\352\361\370\307\316\325\334"
+            + "\166\177\144\155\122\133\100\111\076\067\054\045\032\023\010\001"
+            + "\346\357\364\375\302\313\320\331\256\247\274\265\212\203\230\221"
+            + "\115\104\137\126\151\140\173\162\005\014\027\036\041\050\063\072"
+            + "\335\324\317\306\371\360\353\342\225\234\207\216\261\270\243\252"
+            + "\354\345\376\367\310\301\332\323\244\255\266\277\200\211\222\233"
+            + "\174\165\156\147\130\121\112\103\064\075\046\057\020\031\002\013"
+            + "\327\336\305\314\363\372\341\350\237\226\215\204\273\262\251\240"
+            + "\107\116\125\134\143\152\161\170\017\006\035\024\053\042\071\060"
+            + "\232\223\210\201\276\267\254\245\322\333\300\311\366\377\344\355"
+            + "\012\003\030\021\056\047\074\065\102\113\120\131\146\157\164\175"
+            + "\241\250\263\272\205\214\227\236\351\340\373\362\315\304\337\326"
+            + "\061\070\043\052\025\034\007\016\171\160\153\142\135\124\117\106");
+
+    /**
+     * The products by 11 in GF(2^8), indexed by byte value.
+     */
+    static final byte[] MULTIPLY_11 = decode("\000\013\026\035\054\047\072\061\130\123\116\105\164\177\142\151"
+            + "\260\273\246\255\234\227\212\201\350\343\376\365\304\317\322\331"
+            + "\173\160\155\146\127\134\101\112\043\050\065\076\017\004\031\022"
+            + "\313\300\335\326\347\354\361\372\223\230\205\216\277\264\251\242"
+            + "\366\375\340\353\332\321\314\307\256\245\270\263\202\211\224\237"
+            + "\106\115\120\133\152\141\174\167\036\025\010\003\062\071\044\057"
+            + "\215\206\233\220\241\252\267\274\325\336\303\310\371\362\357\344"
+            + "\075\066\053\040\021\032\007\014\145\156\163\170\111\102\137\124"
+            + "\367\374\341\352\333\320\315\306\257\244\271\262\203\210\225\236"
+            + "\107\114\121\132\153\140\175\166\037\024\011\002\063\070\045\056"
+            + "\214\207\232\221\240\253\266\275\324\337\302\311\370\363\356\345"
+            + "\074\067\052\041\020\033\006\015\144\157\162\171\110\103\136\125"
+            + "\001\012\027\034\055\046\073\060\131\122\117\104\165\176\143\150"
+            + "\261\272\247\254\235\226\213\200\351\342\377\364\305\316\323\330"
+            + "\172\161\154\147\126\135\100\113\042\051\064\077\016\005\030\023"
+            + "\312\301\334\327\346\355\360\373\222\231\204\217\276\265\250\243");
+
+    /**
+     * The products by 13 in GF(2^8), indexed by byte value.
+     */
+    static final byte[] MULTIPLY_13 = decode("\000\015\032\027\064\071\056\043\150\145\162\177\134\121\106\113"
+            + "\320\335\312\307\344\351\376\363\270\265\242\257\214\201\226\233"
+            + "\273\266\241\254\217\202\225\230\323\336\311\304\347\352\375\360"
+            + "\153\146\161\174\137\122\105\110\003\016\031\024\067\072\055\040"
+            + "\155\140\167\172\131\124\103\116\005\010\037\022\061\074\053\046"
+            + "\275\260\247\252\211\204\223\236\325\330\317\302\341\354\373\366"
+            + "\326\333\314\301\342\357\370\365\276\263\244\251\212\207\220\235"
+            + "\006\013\034\021\062\077\050\045\156\143\164\171\132\127\100\115"
+            + "\332\327\300\315\356\343\364\371\262\277\250\245\206\213\234\221"
+            + "\012\007\020\035\076\063\044\051\142\157\170\165\126\133\114\101"
+            + "\141\154\173\166\125\130\117\102\011\004\023\036\075\060\047\052"
+            + "\261\274\253\246\205\210\237\222\331\324\303\316\355\340\367\372"
+            + "\267\272\255\240\203\216\231\224\337\322\305\310\353\346\361\374"
+            + "\147\152\175\160\123\136\111\104\017\002\025\030\073\066\041\054"
+            + "\014\001\026\033\070\065\042\057\144\151\176\163\120\135\112\107"
+            + "\334\321\306\313\350\345\362\377\264\271\256\243\200\215\232\227");
+
+    /**
+     * The products by 14 in GF(2^8), indexed by byte value.
+     */
+    static final byte[] MULTIPLY_14 = decode("\000\016\034\022\070\066\044\052\160\176\154\142\110\106\124\132"
+            + "\340\356\374\362\330\326\304\312\220\236\214\202\250\246\264\272"
+            + "\333\325\307\311\343\355\377\361\253\245\267\271\223\235\217\201"
+            + "\073\065\047\051\003\015\037\021\113\105\127\131\163\175\157\141"
+            + "\255\243\261\277\225\233\211\207\335\323\301\317\345\353\371\367"
+            + "\115\103\121\137\165\173\151\147\075\063\041\057\005\013\031\027"
+            + "\166\170\152\144\116\100\122\134\006\010\032\024\076\060\042\054"
+            + "\226\230\212\204\256\240\262\274\346\350\372\364\336\320\302\314"
+            + "\101\117\135\123\171\167\145\153\061\077\055\043\011\007\025\033"
+            + "\241\257\275\263\231\227\205\213\321\337\315\303\351\347\365\373"
+            + "\232\224\206\210\242\254\276\260\352\344\366\370\322\334\316\300"
+            + "\172\164\146\150\102\114\136\120\012\004\026\030\062\074\056\040"
+            + "\354\342\360\376\324\332\310\306\234\222\200\216\244\252\270\266"
+            + "\014\002\020\036\064\072\050\046\174\162\140\156\104\112\130\126"
+            + "\067\071\053\045\017\001\023\035\107\111\133\125\177\161\143\155"
+            + "\327\331\313\305\357\341\363\375\247\251\273\265\237\221\203\215");
+
+    /**
+     * Prevents instantiation.
+     */
+    private Tables() {
+    }
+
+    /**
+     * Decodes a byte table from its string constant.
+     *
+     * @param encoded The string constant, one character per byte.
+     * @return The byte table.
+     */
+    private static byte[] decode(String encoded) {
+        return encoded.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+}
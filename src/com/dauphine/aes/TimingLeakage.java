@@ -0,0 +1,437 @@
+package com.dauphine.aes;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * <p>
+ * Statistical harness measuring the timing leakage of the engines, in the manner of dudect.
+ * This class provides methods timing an operation on a fixed input and on random inputs, and testing whether the
+ * two classes of timings have the same mean.
+ * </p>
+ *
+ * <p>
+ * Each sample draws its class at random, then times one operation with {@link System#nanoTime()}. Samples feed
+ * Welch's t-test, both raw and cropped above several percentiles of a first warm-up batch, since the upper tail is
+ * dominated by interrupts and garbage collections that hide a small difference of the means. An absolute
+ * t-statistic above {@value #THRESHOLD} in any of the tests is evidence that the timing depends on the secret
+ * data; a smaller one is no proof of constant time, only the absence of evidence at this number of samples.
+ * </p>
+ *
+ * <p>
+ * Two sources are tested per engine: the plain text, with the key fixed, and the key, each sample then
+ * including the key expansion. The off-heap engines of a batch are allocated from an arena opened before the batch
+ * and closed with them after it, so that neither the arena nor its release is timed. The table lookups of {@link SBox} and the branch of
+ * {@link Block#modularMultiplicationByX()} are the data-dependent operations of {@link AES}; the table-driven
+ * engines are exposed to cache timing instead, which shows on a shared core rather than in a loop like this one.
+ * </p>
+ *
+ * @author Nelson PROIA {@literal <nelson.proia@dauphine.eu>}
+ * @see AES
+ * @see CompactAES
+ * @see TableAES
+ * @see OffHeapAES
+ */
+public final class TimingLeakage {
+
+    /**
+     * The absolute t-statistic above which the timings are deemed to leak.
+     */
+    public final static double THRESHOLD = 4.5;
+
+    /**
+     * The default number of samples of a measurement.
+     */
+    public final static long DEFAULT_SAMPLES = 1_000_000;
+
+    /**
+     * The number of samples prepared then timed together, the first batch being only used for warm-up and cropping.
+     */
+    private final static int BATCH_SIZE = 10_000;
+
+    /**
+     * The percentiles above which the samples are cropped, 1 keeping every sample.
+     */
+    private final static double[] PERCENTILES = {1, 0.99, 0.95, 0.9, 0.75, 0.5};
+
+    /**
+     * A value depending on every output, so that the timed operations cannot be optimized away.
+     */
+    private static volatile int sink;
+
+    /**
+     * <p>
+     * Welch's t-test between two classes of samples, accumulated online.
+     * </p>
+     */
+    public static final class WelchTest {
+
+        /**
+         * The number of samples of each class.
+         */
+        private final long[] counts = new long[2];
+
+        /**
+         * The mean of each class.
+         */
+        private final double[] means = new double[2];
+
+        /**
+         * The sum of squared deviations from the mean of each class.
+         */
+        private final double[] squares = new double[2];
+
+        /**
+         * Adds a sample, with Welford's update.
+         *
+         * @param group The class of the sample, 0 or 1.
+         * @param value The sample.
+         */
+        public void add(int group, double value) {
+            double delta = value - means[group];
+            means[group] += delta / ++counts[group];
+            squares[group] += delta * (value - means[group]);
+        }
+
+        /**
+         * Returns the number of samples.
+         *
+         * @return The number of samples of both classes.
+         */
+        public long count() {
+            return counts[0] + counts[1];
+        }
+
+        /**
+         * Returns Welch's t-statistic.
+         *
+         * @return The statistic, 0 while a class has fewer than two samples.
+         */
+        public double statistic() {
+            if (counts[0] < 2 || counts[1] < 2) {
+                return 0;
+            }
+
+            double variance0 = squares[0] / (counts[0] - 1);
+            double variance1 = squares[1] / (counts[1] - 1);
+            double error = Math.sqrt(variance0 / counts[0] + variance1 / counts[1]);
+
+            return error == 0 ? 0 : (means[0] - means[1]) / error;
+        }
+
+        /**
+         * Returns the mean of a class.
+         *
+         * @param group The class, 0 or 1.
+         * @return The mean.
+         */
+        public double mean(int group) {
+            return means[group];
+        }
+
+    }
+
+    /**
+     * <p>
+     * Result of a measurement: the test of largest absolute t-statistic among the cropped ones.
+     * </p>
+     */
+    public static final class Report {
+
+        /**
+         * The name of the measurement.
+         */
+        private final String name;
+
+        /**
+         * The number of samples timed, warm-up excluded.
+         */
+        private final long samples;
+
+        /**
+         * The t-statistic of largest absolute value.
+         */
+        private final double statistic;
+
+        /**
+         * The percentile at which the samples of that test are cropped.
+         */
+        private final double percentile;
+
+        /**
+         * The mean of the fixed class of that test, in nanoseconds.
+         */
+        private final double fixedMean;
+
+        /**
+         * The mean of the random class of that test, in nanoseconds.
+         */
+        private final double randomMean;
+
+        /**
+         * Constructs a report from the tests of a measurement.
+         *
+         * @param name    The name of the measurement.
+         * @param samples The number of samples timed, warm-up excluded.
+         * @param tests   The tests, one per percentile of {@link #PERCENTILES}.
+         */
+        Report(String name, long samples, WelchTest[] tests) {
+            int worst = 0;
+
+            for (int i = 1; i < tests.length; ++i) {
+                if (Math.abs(tests[i].statistic()) > Math.abs(tests[worst].statistic())) {
+                    worst = i;
+                }
+            }
+
+            this.name = name;
+            this.samples = samples;
+            this.statistic = tests[worst].statistic();
+            this.percentile = PERCENTILES[worst];
+            this.fixedMean = tests[worst].mean(0);
+            this.randomMean = tests[worst].mean(1);
+        }
+
+        /**
+         * Returns the t-statistic of largest absolute value.
+         *
+         * @return The statistic.
+         */
+        public double statistic() {
+            return statistic;
+        }
+
+        /**
+         * Returns whether the timings leak.
+         *
+         * @return True if the absolute statistic is above {@value #THRESHOLD}.
+         */
+        public boolean isLeaking() {
+            return Math.abs(statistic) > THRESHOLD;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @return The string representation of the report.
+         */
+        @Override
+        public String toString() {
+            return String.format("%-26s : max |t| %8.2f at p%-3.0f (fixed %9.1f ns, random %9.1f ns, %d samples) %s",
+                    name, Math.abs(statistic), 100 * percentile, fixedMean, randomMean, samples,
+                    isLeaking() ? "LEAK" : "no evidence of leakage");
+        }
+
+    }
+
+    /**
+     * Prevents instantiation.
+     */
+    private TimingLeakage() {
+    }
+
+    /**
+     * Measures the leakage of an engine through its plain text, the key being fixed.
+     *
+     * @param name    The name of the measurement.
+     * @param engine  The engine.
+     * @param samples The number of samples.
+     * @return The report.
+     * @see BlockCipher
+     */
+    public static Report plainTexts(String name, BlockCipher engine, long samples) {
+        return measure(name, engine::cipher, new byte[AES.BLOCK_SIZE], samples);
+    }
+
+    /**
+     * Measures the leakage of an engine through its key, each sample expanding the key and ciphering a zero block.
+     *
+     * @param name    The name of the measurement.
+     * @param factory The function constructing the engine from a key.
+     * @param keySize The size in bytes of a key.
+     * @param samples The number of samples.
+     * @return The report.
+     * @see BlockCipher
+     */
+    public static Report keys(String name, Function<byte[], BlockCipher> factory, int keySize, long samples) {
+        byte[] zero = new byte[AES.BLOCK_SIZE];
+
+        return measure(name, key -> factory.apply(key).cipher(zero), new byte[keySize], samples);
+    }
+
+    /**
+     * Measures the leakage of {@link OffHeapAES} through its key, each sample expanding the key into the arena of
+     * its batch and ciphering a zero block.
+     *
+     * @param name    The name of the measurement.
+     * @param samples The number of samples.
+     * @return The report.
+     */
+    public static Report offHeapKeys(String name, long samples) {
+        byte[] zero = new byte[AES.BLOCK_SIZE];
+        List<OffHeapAES> engines = new ArrayList<>();
+        AtomicReference<Arena> arena = new AtomicReference<>(Arena.ofShared());
+        Runnable release = () -> {
+            engines.forEach(OffHeapAES::close);
+            engines.clear();
+            arena.get().close();
+        };
+
+        try {
+            return measure(name, key -> {
+                OffHeapAES engine = new OffHeapAES(MemorySegment.ofArray(key), arena.get());
+                engines.add(engine);
+
+                return engine.cipher(zero);
+            }, new byte[AES.BLOCK_SIZE], samples, () -> {
+                release.run();
+                arena.set(Arena.ofShared());
+            });
+        } finally {
+            release.run();
+        }
+    }
+
+    /**
+     * Measures the leakage of an operation through its input, fixed for one class and random for the other.
+     *
+     * @param name      The name of the measurement.
+     * @param operation The timed operation.
+     * @param fixed     The input of the fixed class, whose length is that of every input.
+     * @param samples   The number of samples, warm-up excluded.
+     * @return The report.
+     */
+    public static Report measure(String name, UnaryOperator<byte[]> operation, byte[] fixed, long samples) {
+        return measure(name, operation, fixed, samples, () -> {
+        });
+    }
+
+    /**
+     * Measures the leakage of an operation through its input, running an untimed action after each batch.
+     *
+     * @param name      The name of the measurement.
+     * @param operation The timed operation.
+     * @param fixed     The input of the fixed class, whose length is that of every input.
+     * @param samples   The number of samples, warm-up excluded.
+     * @param release   The action run after each batch, such as releasing what the operations allocated.
+     * @return The report.
+     */
+    private static Report measure(String name, UnaryOperator<byte[]> operation, byte[] fixed, long samples, Runnable release) {
+        Random random = new SecureRandom();
+        byte[][] inputs = new byte[BATCH_SIZE][fixed.length];
+        int[] groups = new int[BATCH_SIZE];
+        long[] times = new long[BATCH_SIZE];
+        long[] thresholds = null;
+
+        WelchTest[] tests = new WelchTest[PERCENTILES.length];
+        Arrays.setAll(tests, i -> new WelchTest());
+
+        for (long done = -BATCH_SIZE; done < samples; done += BATCH_SIZE) {
+            int count = (int) Math.min(BATCH_SIZE, samples - done);
+
+            for (int i = 0; i < count; ++i) {
+                groups[i] = random.nextInt(2);
+
+                if (groups[i] == 0) {
+                    System.arraycopy(fixed, 0, inputs[i], 0, fixed.length);
+                } else {
+                    random.nextBytes(inputs[i]);
+                }
+            }
+
+            int accumulator = 0;
+
+            for (int i = 0; i < count; ++i) {
+                long begin = System.nanoTime();
+                byte[] output = operation.apply(inputs[i]);
+                times[i] = System.nanoTime() - begin;
+
+                accumulator += output[0];
+            }
+
+            sink += accumulator;
+            release.run();
+
+            if (thresholds == null) {
+                thresholds = thresholds(times, count);
+                continue;
+            }
+
+            for (int i = 0; i < count; ++i) {
+                for (int k = 0; k < tests.length; ++k) {
+                    if (times[i] <= thresholds[k]) {
+                        tests[k].add(groups[i], times[i]);
+                    }
+                }
+            }
+        }
+
+        return new Report(name, Math.max(0, samples), tests);
+    }
+
+    /**
+     * Computes the cropping thresholds from the warm-up batch.
+     *
+     * @param times The timings of the warm-up batch.
+     * @param count The number of timings.
+     * @return The thresholds, one per percentile of {@link #PERCENTILES}.
+     */
+    private static long[] thresholds(long[] times, int count) {
+        long[] sorted = Arrays.copyOf(times, count);
+        Arrays.sort(sorted);
+
+        long[] thresholds = new long[PERCENTILES.length];
+
+        for (int k = 0; k < PERCENTILES.length; ++k) {
+            thresholds[k] = PERCENTILES[k] == 1 ? Long.MAX_VALUE : sorted[(int) (PERCENTILES[k] * (count - 1))];
+        }
+
+        return thresholds;
+    }
+
+    /**
+     * Measures the leakage of every engine through the plain text and the key, printing a report per engine.
+     *
+     * @param args Command-line arguments: optional number of samples of the table-driven engines, a hundredth of
+     *             it being used for the slower {@link State}-based engine.
+     */
+    public static void main(String[] args) {
+        long samples = args.length > 0 ? Long.parseLong(args[0]) : DEFAULT_SAMPLES;
+        long slowSamples = Math.max(2 * BATCH_SIZE, samples / 100);
+
+        byte[] key = new byte[AES.BLOCK_SIZE];
+        byte[] longKey = new byte[2 * AES.BLOCK_SIZE];
+        new SecureRandom().nextBytes(key);
+        new SecureRandom().nextBytes(longKey);
+
+        Report[] reports;
+
+        try (OffHeapAES offHeap = new OffHeapAES(new Block(key))) {
+            reports = new Report[]{
+                    plainTexts("AES plain text", new AES(new Block(key)), slowSamples),
+                    keys("AES key", k -> new AES(new Block(k)), AES.BLOCK_SIZE, slowSamples),
+                    plainTexts("OffHeapAES plain text", offHeap, samples),
+                    offHeapKeys("OffHeapAES key", samples),
+                    plainTexts("CompactAES plain text", new CompactAES(key), samples),
+                    keys("CompactAES key", CompactAES::new, AES.BLOCK_SIZE, samples),
+                    plainTexts("CompactAES-256 plain text", new CompactAES(longKey), samples),
+                    keys("CompactAES-256 key", CompactAES::new, 2 * AES.BLOCK_SIZE, samples),
+                    plainTexts("TableAES plain text", new TableAES(key), samples),
+                    keys("TableAES key", TableAES::new, AES.BLOCK_SIZE, samples),
+            };
+        }
+
+        for (Report report : reports) {
+            System.out.println(report);
+        }
+    }
+
+}